@@ -1,19 +1,72 @@
 package dbs;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.AbstractList;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.LongSummaryStatistics;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.RandomAccess;
 import java.util.Set;
-import java.util.StringTokenizer;
+import java.util.Spliterator;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.CRC32;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
 
 
 /*
@@ -26,8 +79,53 @@ import java.util.StringTokenizer;
  * This class simulates a block storage of a DBS. 
  * It can store and retrieve pages in form of byte[]
  * 
+ * OffHeapBlockStorage
+ * Keeps the pages in large direct ByteBuffers outside the Java heap, without an object per page.
+ * 
+ * MappedBlockStorage
+ * A persistent block storage that keeps its pages in a memory-mapped file.
+ * All storages implement the BlockStorage interface.
+ * 
+ * ZoneMap
+ * The minimum and maximum orderdate, totalprice and orderkey per page, so scans can skip pages.
+ * 
+ * StorageMetrics
+ * Counters, latency histograms and JFR events of inserts, reads and page I/O.
+ * 
+ * SpaceStatistics
+ * Utilization, fill histogram and fragmentation of the pages, updated with every change.
+ * 
+ * BufferPool
+ * Caches a fixed number of pages in memory frames in front of the block storage.
+ * All page accesses of SlottedPageExercise go through the buffer pool.
+ * 
+ * TableScan
+ * A cursor over all orders in page order, with read-ahead and a predicate (OrderPredicate) evaluated on the encoded orders.
+ * 
+ * WriteAheadLog
+ * An optional log of all tuple changes, made durable by group commit and redone on startup after a crash.
+ * 
+ * PaxTable
+ * A table of orders in PAX layout: each attribute in its own mini-page inside the page, as an alternative to the slotted pages.
+ * 
+ * OrderTable
+ * The operations on orders that both layouts, SlottedPageExercise and PaxTable, implement.
+ * 
  * TupleIdentifier
  * A simple tuple identifier consisting of a page ID and a page pointer index.
+ * Lists of them are kept packed into longs by TidList.
+ * 
+ * OrderKeyIndex
+ * A B+-tree on o_orderkey that maps the keys to TupleIdentifiers, stored in pages of the same block storage as the table.
+ * 
+ * OrderTblParser
+ * Parses .tbl files of orders from a memory-mapped file, in parallel chunks.
+ * 
+ * OrderSorter
+ * Sorts orders by a key in bounded memory (external merge sort), to load a table clustered by that key.
+ * 
+ * Benchmark
+ * Measures inserts, reads, utilization and aggregation for several page sizes, table sizes and layouts (`java SlottedPageExercise.java bench`).
  * 
  * Order
  * The actual tuple data to be stored.
@@ -38,25 +136,48 @@ import java.util.StringTokenizer;
  * 
  * To execute the code use a IDE or execute the file with 
  * 
- * `java SlottedPageExercise.java`
+ * `java SlottedPageExercise.java [orders.tbl]`
  * 
- * The orders_small.tbl has to be in the same directory
+ * Without an argument, the orders_small.tbl has to be in the working directory
  */
 
 
 /*
  * Our page layout is as follows: 
- *  - 5 (initially empty) pointer values of type int (4 bytes)  
- * Hence, the header needs 5*4 = 20 bytes
- * - The tuple data 
+ * - The header of four int values (4 bytes each) and one long value (8 bytes), hence it needs 4*4 + 8 = 24 bytes
+ *   - The number of slots (pointers) in the page
+ *   - The free-space pointer: the offset where the tuple data starts (0 on a fresh page, meaning the page end)
+ *   - The number of bytes in holes between the tuples, left by deleted or moved tuples
+ *   - The number of free slots, i.e. slots with pointer 0 that can be reused
+ *   - The page LSN: the log sequence number of the last WriteAheadLog record applied to the page (0 without a log)
+ * - The slot array, one int pointer per slot, growing from the header towards the end of the page
+ *   - The lower bits hold the offset of the tuple, the upper bits the SLOT_* flags
+ *   - A slot with pointer 0 is free; slots keep their index, so TupleIdentifiers stay valid
+ * - The free space
+ * - The tuple data, growing from the end of the page towards the slot array
  *   - The tuple data starts with one int (4 bytes) storing the length of the tuple record 
  *   - And then the actual tuple byte data
+ *   - A tuple that had to move to another page is replaced by a forwarding record holding its new page and slot
+ * Pages of an OrderKeyIndex have a negative slot count (INDEX_PAGE), the table skips them.
  */
 
 
-public class SlottedPageExercise {
+public class SlottedPageExercise implements OrderTable {
 
-	private FakeBlockStorage storage;
+	private BlockStorage storage;
+	private BufferPool pool;
+	private FreeSpaceMap freeSpace;
+	private SpaceStatistics statistics;
+	private StorageMetrics metrics;
+	private ZoneMap zones;
+	private volatile OrderKeyIndex keyIndex;
+	private PageLatches latches;
+	private WriteAheadLog log;
+	/**
+	 * The LSN of the last log record appended by each thread, which is what commitLog waits for.
+	 */
+	private final ThreadLocal<long[]> lastLsn = ThreadLocal.withInitial(() -> new long[1]);
+	private volatile boolean compressedPages;
 	int currentPage;
 
 	/*
@@ -64,116 +185,478 @@ public class SlottedPageExercise {
 	 */
 	// The byte size of one "int" value in Java
 	static final int INT_SIZE = 4;
-	// The number of pointers in the header of a page
-	static final int NUM_POINTERS = 5;
+	// The byte size of one "long" value in Java
+	static final int LONG_SIZE = 8;
+	// The offsets of the slot count, the free-space pointer, the fragmented bytes, the free slot count and the page LSN within the page header
+	static final int SLOT_COUNT_OFFSET = 0;
+	static final int FREE_SPACE_OFFSET = INT_SIZE;
+	static final int FRAGMENTED_OFFSET = INT_SIZE * 2;
+	static final int FREE_SLOTS_OFFSET = INT_SIZE * 3;
+	static final int PAGE_LSN_OFFSET = INT_SIZE * 4;
 	// The byte size of a page header
-	static final int HEADER_SIZE = INT_SIZE * NUM_POINTERS;
+	static final int HEADER_SIZE = INT_SIZE * 4 + LONG_SIZE;
+	// The bits of a slot pointer holding the offset of the tuple
+	static final int POINTER_MASK = 0x00FFFFFF;
+	// Slot flag: the slot holds a forwarding record instead of the tuple
+	static final int SLOT_FORWARD = 0x40000000;
+	// Slot flag: the tuple was moved here from another page and belongs to that page's forwarding record
+	static final int SLOT_MOVED = 0x20000000;
+	// The byte size of a forwarding record (without its length): the page and slot the tuple moved to
+	static final int FORWARD_SIZE = INT_SIZE * 2;
+	// Marks a page of an OrderKeyIndex in the slot count field: a negative slot count, so the page has no slots for the table
+	static final int INDEX_PAGE = 0x80000000;
+	// Results of one attempt to update or delete a tuple
+	private static final int DONE = 0;
+	private static final int NOT_FOUND = 1;
+	private static final int RETRY = 2;
+	// The number of frames of the buffer pool, if none is given
+	static final int DEFAULT_POOL_FRAMES = 1024;
+	// The number of pages a table scan reads ahead of the page it is working on
+	static final int READ_AHEAD_PAGES = 16;
+	// The heap bytes of orders a clustered bulk load sorts in memory before it spills a run
+	static final long SORT_MEMORY_BYTES = 64L * 1024 * 1024;
+	// Runs the read-ahead of table scans in the background
+	private static final ExecutorService READ_AHEAD = Executors.newCachedThreadPool(task -> {
+		Thread thread = new Thread(task, "read-ahead");
+		thread.setDaemon(true);
+		return thread;
+	});
 
 	public SlottedPageExercise() {
 		storage = new FakeBlockStorage();
-		currentPage = storage.initNewPage();
+		pool = new BufferPool(storage, DEFAULT_POOL_FRAMES, new ClockPolicy(DEFAULT_POOL_FRAMES));
+		freeSpace = new FreeSpaceMap(storage.getPageSize(), Runtime.getRuntime().availableProcessors());
+		statistics = new SpaceStatistics(storage.getPageSize());
+		metrics = new StorageMetrics(pool);
+		zones = new ZoneMap();
+		latches = new PageLatches(storage);
+		currentPage = allocatePage();
+		freeSpace.update(currentPage, storage.getPageSize() - HEADER_SIZE);
 	}
 
-	/*
-	 * Utility methods
+	/**
+	 * Creates the exercise on top of the given block storage, cached by a CLOCK buffer pool of DEFAULT_POOL_FRAMES frames.
+	 * @param storage the block storage holding the pages
+	 * @throws Exception
+	 */
+	public SlottedPageExercise(BlockStorage storage) throws Exception {
+		this(new BufferPool(storage, DEFAULT_POOL_FRAMES, new ClockPolicy(DEFAULT_POOL_FRAMES)));
+	}
+
+	/**
+	 * Creates the exercise on top of the given buffer pool. Pages that already exist in the storage
+	 * (e.g. those of a reopened MappedBlockStorage) are read once to rebuild the free-space map.
+	 * @param pool the buffer pool through which all pages are accessed
+	 * @throws Exception
+	 */
+	public SlottedPageExercise(BufferPool pool) throws Exception {
+		this(pool, null);
+	}
+
+	/**
+	 * Creates the exercise on top of the given buffer pool, logging every change of a tuple to the given
+	 * write-ahead log. The changes in the log that did not reach the storage yet (because the pages were
+	 * not flushed before a crash) are redone first, then the free-space map, the space statistics and the zone maps are rebuilt from the pages.
+	 * Pages of an OrderKeyIndex are skipped, the index is attached again with setOrderKeyIndex.
+	 * @param pool the buffer pool through which all pages are accessed
+	 * @param log the write-ahead log, null to run without one
+	 * @throws Exception
+	 */
+	public SlottedPageExercise(BufferPool pool, WriteAheadLog log) throws Exception {
+		this.storage = pool.getStorage();
+		this.pool = pool;
+		freeSpace = new FreeSpaceMap(storage.getPageSize(), Runtime.getRuntime().availableProcessors());
+		statistics = new SpaceStatistics(storage.getPageSize());
+		metrics = new StorageMetrics(pool);
+		zones = new ZoneMap();
+		latches = new PageLatches(storage);
+		if (log != null) {
+			log.replay(this::redo);
+			pool.setWriteAheadLog(log);
+			this.log = log;
+		}
+		for (int id : storage.getAllPageIds()) {
+			ByteBuffer page = pool.pin(id);
+			boolean indexPage = isIndexPage(page);
+			try {
+				if (!indexPage) {
+					pageChanged(id, page);
+				}
+			} finally {
+				pool.unpin(id, false);
+			}
+			if (!indexPage) {
+				scanPage(id, OrderPredicate.all(), (pageId, slot, buffer, offset) -> zones.add(pageId, buffer, offset));
+			}
+		}
+		if (storage.numberOfPagesUsed() > 0) {
+			currentPage = 0;
+		} else {
+			currentPage = allocatePage();
+			freeSpace.update(currentPage, storage.getPageSize() - HEADER_SIZE);
+		}
+	}
+
+	/**
+	 * Switches the compressed page mode on or off. In compressed mode the comments of new and updated
+	 * orders are compressed (see CommentCodec); orders stored before keep their format, both are read alike.
+	 * Must not be switched concurrently with inserts or updates.
+	 * @param compressed true to compress the comments of the orders stored from now on
+	 */
+	public void setCompressedPages(boolean compressed) {
+		this.compressedPages = compressed;
+	}
+
+	public boolean isCompressedPages() {
+		return compressedPages;
+	}
+
+	/**
+	 * Returns the counters and latency histograms of inserts, reads and page I/O.
+	 * @return the live metrics
+	 */
+	public StorageMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Returns the buffer pool, e.g. to read its hit/miss/eviction counters.
+	 * @return the buffer pool
+	 */
+	public BufferPool getBufferPool() {
+		return pool;
+	}
+
+	/**
+	 * Writes all modified pages back and makes the storage durable.
+	 * Must not run concurrently with inserts, updates or deletes.
 	 */
+	public void flush() {
+		pool.flushAll();
+		storage.flush();
+	}
 
 	/**
-	 * Writes the content array into the page array, starting at the given offset.	  
-	 * @param page The page to write to
-	 * @param offset The pointer where the content will start to be written.
-	 * @param content The content to be written to the page
+	 * Flushes all pages and then empties the write-ahead log, whose records are no longer needed for redo.
+	 * Must not run concurrently with inserts, updates or deletes.
+	 * @throws IOException
 	 */
-	private void writeToPage(byte[] page, int offset, byte[] content) {
-		java.lang.System.arraycopy(content, 0, page, offset, content.length);
+	public void checkpoint() throws IOException {
+		flush();
+		if (log != null) {
+			log.truncate();
+		}
 	}
 
+	/*
+	 * Utility methods
+	 */
+
 	/**
-	 * Utility function that takes an order object, serializes it to a byte[] and write the
-	 * byte[] at the position specified into the page's byte[]
+	 * Utility function that writes the given order object as [TupleSize, <tuple>] into the page,
+	 * at the position specified. The order is serialized directly into the page.
 	 * @param page the page content to be modified
 	 * @param offset the offset within the page where the tuple's data should be put
 	 * @param o the tuple that is to be written.
+	 * @param orderSize the encoded size of the order, as returned by encodedSize
 	 * @throws Exception
 	 */
-	private void writeTuple(byte[] page, int offset, Order o) throws Exception {
-		byte[] orderBytes = o.getAsByteArray(); // Transform tuple to bytes
-		// Get [TupleSize, <tuple>] array
-		byte[] tupleBytes = ByteBuffer.allocate(orderBytes.length + INT_SIZE).putInt(orderBytes.length).put(orderBytes)
-				.array();
-		writeToPage(page, offset, tupleBytes); // Write tuple to page
+	private void writeTuple(ByteBuffer page, int offset, Order o, int orderSize) throws Exception {
+		page.putInt(offset, orderSize);
+		o.writeTo(page, offset + INT_SIZE, compressedPages);
 	}
 
-/**
-     * Modifies the given page byte[] by writing a pointer value to the page at a given index
-     * @param page The content of the page (byte[])
-     * @param pointerIndex The index of the pointer (starting at 0)
-     * @param pointer The pointer to be stored (an offset within the page byte[])
-     * @throws Exception
-     */
-    private void writePointer(byte[] page, int pointerIndex, int pointer) throws Exception {
-        byte[] pointerBytes = ByteBuffer.allocate(INT_SIZE).putInt(pointer).array();
-        writeToPage(page, pointerIndex * INT_SIZE, pointerBytes); // Write pointer to page
-    }
-
-	private Boolean isSlotAvailableInPg (int id) {
-		Boolean isSlotAvailable = false;
-
-		byte[] p = null;
-		try {
-			p = storage.getPage(id); 
-		} catch (PageNotFoundException pnfe) {
-			isSlotAvailable = false;
+	/**
+	 * Utility function that writes a forwarding record [FORWARD_SIZE, <page>, <slot>] into the page,
+	 * at the position specified.
+	 * @param page the page content to be modified
+	 * @param offset the offset within the page where the record should be put
+	 * @param targetPage the page the tuple was moved to
+	 * @param targetSlot the slot the tuple was moved to
+	 */
+	private void writeForward(ByteBuffer page, int offset, int targetPage, int targetSlot) {
+		page.putInt(offset, FORWARD_SIZE);
+		page.putInt(offset + INT_SIZE, targetPage);
+		page.putInt(offset + 2 * INT_SIZE, targetSlot);
+	}
+
+	/**
+	 * Modifies the given page by writing a pointer value to the page at a given index
+	 * @param page The content of the page
+	 * @param pointerIndex The index of the pointer (starting at 0)
+	 * @param pointer The pointer to be stored (an offset within the page, possibly combined with SLOT_* flags)
+	 * @throws Exception
+	 */
+	private static void writePointer(ByteBuffer page, int pointerIndex, int pointer) {
+		page.putInt(HEADER_SIZE + pointerIndex * INT_SIZE, pointer); // Write pointer to page
+	}
+
+	/**
+	 * Returns the pointer (with its SLOT_* flags) stored in the given slot, 0 if the slot does not exist or is free.
+	 * On an index page (see isIndexPage) no slot exists, as the slot count is negative there.
+	 */
+	private static int readPointer(ByteBuffer page, int slot) {
+		if (slot < 0 || slot >= page.getInt(SLOT_COUNT_OFFSET)) {
+			return 0;
 		}
+		return page.getInt(HEADER_SIZE + slot * INT_SIZE);
+	}
+
+	/**
+	 * Returns true if the page is a node of an OrderKeyIndex instead of a slotted page of the table.
+	 */
+	private static boolean isIndexPage(ByteBuffer page) {
+		return page.getInt(SLOT_COUNT_OFFSET) < 0;
+	}
 
-		if (p != null) {
-			ByteArrayInputStream s = new ByteArrayInputStream(p);
-			DataInputStream ds = new DataInputStream(s);
+	/**
+	 * Returns the offset where the tuple data of the page starts, i.e. the end of the free space.
+	 */
+	private static int getFreeSpaceEnd(ByteBuffer page) {
+		int pointer = page.getInt(FREE_SPACE_OFFSET);
+		return pointer == 0 ? page.capacity() : pointer;
+	}
 
-			try {
-				int i = 0;
-				while (i < NUM_POINTERS) {
-					// If pointer value is 0, then slot is FREE
-					// If slot is uninitialized then throw Exception, then slot is free
-					if (ds.readInt() == 0) {
-						isSlotAvailable = true;
-						break;
-					}
-					else i++;
-					// think for FUTURE to reuse allocated slots or optimize space allocation/usage
+	/**
+	 * Returns the number of bytes between the slot array and the tuple data of the page.
+	 */
+	private static int getFreeBytes(ByteBuffer page) {
+		return getFreeSpaceEnd(page) - HEADER_SIZE - page.getInt(SLOT_COUNT_OFFSET) * INT_SIZE;
+	}
+
+	/**
+	 * Returns the number of bytes of the page that can be used for new tuples: the free space
+	 * plus the holes left by deleted or moved tuples, which compacting the page turns into free space.
+	 */
+	private static int getUnusedBytes(ByteBuffer page) {
+		return getFreeBytes(page) + page.getInt(FRAGMENTED_OFFSET);
+	}
+
+	/**
+	 * Returns a slot for a new tuple: a free slot if there is one, otherwise a new slot at the end of the slot array.
+	 * The pointer of the returned slot is 0 until the caller writes it.
+	 */
+	private static int takeSlot(ByteBuffer page) {
+		int slotCount = page.getInt(SLOT_COUNT_OFFSET);
+		int freeSlots = page.getInt(FREE_SLOTS_OFFSET);
+		if (freeSlots > 0) {
+			for (int slot = 0; slot < slotCount; slot++) {
+				if (page.getInt(HEADER_SIZE + slot * INT_SIZE) == 0) {
+					page.putInt(FREE_SLOTS_OFFSET, freeSlots - 1);
+					return slot;
 				}
-			} catch (Exception e) {
-				
 			}
 		}
-		return isSlotAvailable;
+		if (getFreeBytes(page) < INT_SIZE) {
+			compactPage(page);
+		}
+		page.putInt(HEADER_SIZE + slotCount * INT_SIZE, 0);
+		page.putInt(SLOT_COUNT_OFFSET, slotCount + 1);
+		return slotCount;
 	}
 
-	private int getNextAvailablePointerIdxInPg (int id) throws Exception{
-		int pointerIndex = 0;
+	/**
+	 * Frees the given slot and the tuple it points to, so both can be reused.
+	 * Free slots at the end of the slot array are removed from it.
+	 */
+	private static void freeSlot(ByteBuffer page, int slot) {
+		releaseSpace(page, page.getInt(HEADER_SIZE + slot * INT_SIZE) & POINTER_MASK);
+		page.putInt(HEADER_SIZE + slot * INT_SIZE, 0);
+		int slotCount = page.getInt(SLOT_COUNT_OFFSET);
+		int freeSlots = page.getInt(FREE_SLOTS_OFFSET) + 1;
+		while (slotCount > 0 && page.getInt(HEADER_SIZE + (slotCount - 1) * INT_SIZE) == 0) {
+			slotCount--;
+			freeSlots--;
+		}
+		page.putInt(SLOT_COUNT_OFFSET, slotCount);
+		page.putInt(FREE_SLOTS_OFFSET, freeSlots);
+	}
 
-		byte[] p = null;
-		
+	/**
+	 * Reserves the given number of bytes for a tuple right in front of the existing tuples and returns their offset.
+	 * If the free space is too small, the page is compacted first. The caller has to make sure that
+	 * getUnusedBytes of the page (after taking the slot) is at least the number of bytes.
+	 */
+	private static int reserveSpace(ByteBuffer page, int bytes) {
+		if (getFreeBytes(page) < bytes) {
+			compactPage(page);
+		}
+		int offset = getFreeSpaceEnd(page) - bytes;
+		page.putInt(FREE_SPACE_OFFSET, offset);
+		return offset;
+	}
+
+	/**
+	 * Gives the bytes of the tuple at the given offset back to the page. A tuple directly at the start of
+	 * the tuple data just moves the free-space pointer, any other tuple leaves a hole.
+	 */
+	private static void releaseSpace(ByteBuffer page, int offset) {
+		int length = page.getInt(offset) + INT_SIZE;
+		if (offset == getFreeSpaceEnd(page)) {
+			page.putInt(FREE_SPACE_OFFSET, offset + length);
+		} else {
+			page.putInt(FRAGMENTED_OFFSET, page.getInt(FRAGMENTED_OFFSET) + length);
+		}
+	}
 
-			p = storage.getPage(id);
+	/**
+	 * Moves all tuples of the page to the end of the page, so that all holes become one free space.
+	 * The slots keep their index and flags, only their pointers change.
+	 */
+	private static void compactPage(ByteBuffer page) {
+		int slotCount = page.getInt(SLOT_COUNT_OFFSET);
+		// the used slots, sorted by the offset of their tuple
+		long[] tuples = new long[slotCount];
+		int numTuples = 0;
+		for (int slot = 0; slot < slotCount; slot++) {
+			int pointer = page.getInt(HEADER_SIZE + slot * INT_SIZE);
+			if (pointer != 0) {
+				tuples[numTuples++] = ((long) (pointer & POINTER_MASK) << 32) | slot;
+			}
+		}
+		Arrays.sort(tuples, 0, numTuples);
 
-			ByteArrayInputStream s = new ByteArrayInputStream(p);
-			DataInputStream ds = new DataInputStream(s);
+		// move the tuples to the end, starting with the last one, so no tuple is overwritten before it moved
+		int end = page.capacity();
+		for (int i = numTuples - 1; i >= 0; i--) {
+			int offset = (int) (tuples[i] >>> 32);
+			int slot = (int) tuples[i];
+			int length = page.getInt(offset) + INT_SIZE;
+			end -= length;
+			if (end != offset) {
+				page.put(end, page, offset, length);
+				int pointer = page.getInt(HEADER_SIZE + slot * INT_SIZE);
+				page.putInt(HEADER_SIZE + slot * INT_SIZE, (pointer & ~POINTER_MASK) | end);
+			}
+		}
+		page.putInt(FREE_SPACE_OFFSET, end);
+		page.putInt(FRAGMENTED_OFFSET, 0);
+	}
 
-			try {
-				while (pointerIndex < NUM_POINTERS) {
-					// TODO OOOO
-					// If pointer value is 0, then slot is FREE
-					if (ds.readInt() == 0)
-						break;
-					else pointerIndex++;
-					// think for FUTURE to reuse allocated slots or optimize space allocation/usage
-				}
-			} catch (Exception e) {
+	/**
+	 * Appends a record for the new content of the given slot to the write-ahead log (if there is one) and
+	 * makes it the LSN of the page. Has to be called while the page is latched, right after the change.
+	 * @param type the WriteAheadLog record type: INSERT or UPDATE log the tuple (or forwarding record) the slot
+	 *        now points to, DELETE logs that the slot was freed
+	 */
+	private void logChange(byte type, int pgId, ByteBuffer page, int slot) {
+		if (log == null) {
+			return;
+		}
+		long lsn;
+		if (type == WriteAheadLog.DELETE) {
+			lsn = log.append(type, pgId, slot, 0, page, 0, 0);
+		} else {
+			int pointer = readPointer(page, slot);
+			int offset = pointer & POINTER_MASK;
+			lsn = log.append(type, pgId, slot, pointer & ~POINTER_MASK, page, offset + INT_SIZE, page.getInt(offset));
+		}
+		page.putLong(PAGE_LSN_OFFSET, lsn);
+		lastLsn.get()[0] = lsn;
+	}
 
+	/**
+	 * Waits until all records this thread appended to the write-ahead log are durable. Called once per
+	 * operation after its latches are released, so concurrent operations share one fsync (group commit).
+	 */
+	private void commitLog() throws IOException {
+		if (log != null) {
+			log.commit(lastLsn.get()[0]);
+		}
+	}
+
+	/**
+	 * Redoes one record of the write-ahead log on its page, unless the page already contains the change.
+	 * Pages that were allocated but never written before the crash are created again.
+	 */
+	private void redo(byte type, long lsn, int pgId, int slot, int slotFlags, ByteBuffer record, int offset, int length) {
+		while (storage.numberOfPagesUsed() <= pgId) {
+			storage.initNewPage();
+		}
+		ByteBuffer page;
+		try {
+			page = pool.pin(pgId);
+		} catch (PageNotFoundException e) {
+			throw new IllegalStateException(e);
+		}
+		boolean redone = false;
+		try {
+			if (page.getLong(PAGE_LSN_OFFSET) >= lsn) {
+				return;
+			}
+			int slotCount = page.getInt(SLOT_COUNT_OFFSET);
+			int pointer = readPointer(page, slot);
+			if (type == WriteAheadLog.DELETE) {
+				if (pointer != 0) {
+					freeSlot(page, slot);
+				}
+			} else {
+				if (pointer != 0) {
+					releaseSpace(page, pointer & POINTER_MASK);
+					writePointer(page, slot, 0);
+				} else if (slot < slotCount) {
+					page.putInt(FREE_SLOTS_OFFSET, page.getInt(FREE_SLOTS_OFFSET) - 1);
+				} else {
+					// The slots in between were free when the record was written, the page state is the same now
+					if (getFreeBytes(page) < (slot + 1 - slotCount) * INT_SIZE) {
+						compactPage(page);
+					}
+					for (int i = slotCount; i <= slot; i++) {
+						writePointer(page, i, 0);
+					}
+					page.putInt(SLOT_COUNT_OFFSET, slot + 1);
+					page.putInt(FREE_SLOTS_OFFSET, page.getInt(FREE_SLOTS_OFFSET) + slot - slotCount);
+				}
+				int pointer2Tuple = reserveSpace(page, length + INT_SIZE);
+				page.putInt(pointer2Tuple, length);
+				page.put(pointer2Tuple + INT_SIZE, record, offset, length);
+				writePointer(page, slot, slotFlags | pointer2Tuple);
 			}
+			page.putLong(PAGE_LSN_OFFSET, lsn);
+			redone = true;
+		} finally {
+			pool.unpin(pgId, redone);
+		}
+	}
 
-		return pointerIndex;
+	/**
+	 * Creates a new (empty) page in the storage and counts it in the space statistics. The page is not yet in the free-space map,
+	 * so no other thread finds it before the caller registers it.
+	 * @return the id of the new page
+	 */
+	private int allocatePage() {
+		int id = storage.initNewPage();
+		statistics.update(id, HEADER_SIZE, 0);
+		return id;
+	}
+
+	/**
+	 * Reports the current unused bytes of a modified page to the free-space map and the space statistics.
+	 * Has to be called while the page is latched. Index pages are never reported, so no tuple is put into one.
+	 */
+	private void pageChanged(int pgId, ByteBuffer page) {
+		if (isIndexPage(page)) {
+			return;
+		}
+		int unused = getUnusedBytes(page);
+		freeSpace.update(pgId, unused);
+		statistics.update(pgId, page.capacity() - unused, page.getInt(FRAGMENTED_OFFSET));
+	}
+
+	/**
+	 * Returns the encoded size of the order in the current page mode.
+	 */
+	private int encodedSize(Order o) throws UTFDataFormatException {
+		return o.getEncodedSize(compressedPages);
+	}
+
+	/**
+	 * Checks that a tuple of the given order size fits into an empty page.
+	 */
+	private void checkTupleSize(int orderSize) throws Exception {
+		if (orderSize + 2 * INT_SIZE > storage.getPageSize() - HEADER_SIZE) {
+			throw new Exception("Tuple of " + (orderSize + INT_SIZE) + " bytes does not fit into an empty page");
+		}
 	}
 
 	/**
@@ -183,46 +666,33 @@ public class SlottedPageExercise {
 	 * @throws Exception
 	 */
 	public TupleIdentifier storeOrder(Order o) throws Exception {
-		//first of all we get the object in byte[] representation
+		long startNanos = System.nanoTime();
+		long startAllocated = StorageMetrics.allocatedBytes();
+		StoreOrderEvent event = new StoreOrderEvent();
+		event.begin();
+
+		//first of all we compute the size of the object's byte representation
 		//this content we need to put into a free slot of a page that has 
 		//enough free space to hold the tuple's content
 		
-		byte[] order = o.getAsByteArray();
+		int orderSize = encodedSize(o);
 		
 		//we need to return a tuple identifier in the end, here we initialize it with null to make the file compile
 		TupleIdentifier tid = null;
 		
 		///////////////////////////////////////////////
 		//TODO - Solution code here
-		// 1. Sequentially check all pages for available free slot and stop on 1st available page
-		Set<Integer> allPgIds = storage.getAllPageIds();
-
-		int pgId2Use = -1;
-
-		for (int i : allPgIds) {
-			if (isSlotAvailableInPg(i) && (order.length + INT_SIZE) <= unusedBytes(i)) {
-				pgId2Use = i;
-				break;
-			}
-		}
-
-		// 2. If no page available with enough free slot, then create new page
-		if (pgId2Use < 0) {
-			pgId2Use = storage.initNewPage();
-		}
+		checkTupleSize(orderSize);
+		tid = insertTuple(o, orderSize, 0, true);
+		commitLog();
 
-		// 3. Save Order obj in given page
-		int pointerIndex = getNextAvailablePointerIdxInPg(pgId2Use);
-		if (pointerIndex >= NUM_POINTERS) {
-			throw new Exception("There is no free slot to store the tuple in given page");
+		metrics.insertDone(startNanos, startAllocated, orderSize);
+		if (event.shouldCommit()) {
+			event.pageId = tid.getPage();
+			event.slot = tid.getSlot();
+			event.bytes = orderSize;
+			event.commit();
 		}
-		int pointer2Tuple = storage.getPageSize() - unusedBytes(pgId2Use);
-		byte[] page = storage.getPage(pgId2Use);
-		writePointer(page, pointerIndex, pointer2Tuple);
-		writeTuple(page, pointer2Tuple, o);
-		storage.storePage(pgId2Use, page);
-
-		tid = new TupleIdentifier(pgId2Use, pointerIndex);
 		///////////////////////////////////////////////////
 		//END OF TODO
 		
@@ -230,186 +700,936 @@ public class SlottedPageExercise {
 	}
 
 	/**
-	 * Returns the Order object corresponding to the given TupleIdentifier.
-	 * @param tid The tuple identifier
-	 * @return the order object, NULL if the tuple was not found in the page
-	 * @throws PageNotFoundException Thrown if the page was not found 
-	 * @throws Exception Other exception cases
+	 * Stores the order in some page with enough unused bytes.
+	 * @param o the order to store
+	 * @param orderSize the encoded size of the order
+	 * @param slotFlags the SLOT_* flags for the slot of the tuple
+	 * @param waitForLatch false if the caller already holds another page latch: a page that is latched by
+	 *        another thread is then skipped for a new page, instead of waiting (and maybe deadlocking) for it
+	 * @return the TupleIdentifier of the new tuple
+	 * @throws Exception
 	 */
-	public Order getOrder(TupleIdentifier tid) throws PageNotFoundException, Exception {
-		byte[] p = storage.getPage(tid.getPage());
-		
-		//the object we want to return in the end, just initialized with NULL to make the file compile
-		Order ret = null;
-		//TODO - Solution code here
-		ByteArrayInputStream s = new ByteArrayInputStream(p);
-		DataInputStream ds = new DataInputStream(s);
-
-		int tupleIndex = -1;
-		int i = 0;
-		// Find slot number of the tuple
-		for (i = 0; i <= tid.getSlot(); i++) {
-			tupleIndex = ds.readInt();
-		}
-
-		// Skip header 
-		while (i < NUM_POINTERS) {
-			ds.readInt();
-			i++;
-		}
+	private TupleIdentifier insertTuple(Order o, int orderSize, int slotFlags, boolean waitForLatch) throws Exception {
+		// The tuple needs its data, its length and (at most) a new slot
+		int neededBytes = orderSize + 2 * INT_SIZE;
 
-		// Skip bytes for previous tuples before needed one
-		ds.readNBytes(tupleIndex-HEADER_SIZE);
+		while (true) {
+			metrics.insertPagesProbed.increment();
+			// 1. Ask the free-space map for a page with enough unused bytes
+			int pgId2Use = freeSpace.findPage(neededBytes);
 
-		// Read the size of the tuple from 1st 4 bytes
-		int tupleSize = ds.readInt();
+			// 2. If no page has enough unused bytes, then create new page
+			if (pgId2Use < 0) {
+				pgId2Use = allocatePage();
+			}
+			StampedLock latch = latches.get(pgId2Use);
+			long stamp = waitForLatch ? latch.writeLock() : latch.tryWriteLock();
+			if (stamp == 0) {
+				pgId2Use = allocatePage();
+				latch = latches.get(pgId2Use);
+				stamp = latch.writeLock();
+			}
 
-		// Get tuple in bytes and convert to Order object
-		byte[] tuple = ds.readNBytes(tupleSize);
-		ret = new Order(tuple);
+			// 3. Save Order obj in a slot of the page, its data right in front of the existing tuples
+			ByteBuffer page = pool.pin(pgId2Use);
+			boolean inserted = false;
+			try {
+				// The free-space map may be outdated if another thread used the page in the meantime
+				if (getUnusedBytes(page) >= neededBytes) {
+					int pointerIndex = insertTuple(pgId2Use, page, o, orderSize, slotFlags);
+					inserted = true;
+					// A moved tuple stays indexed under the TupleIdentifier of its home slot
+					if ((slotFlags & SLOT_MOVED) == 0) {
+						indexTuple(pgId2Use, page, pointerIndex, o);
+					}
+					return new TupleIdentifier(pgId2Use, pointerIndex);
+				}
+			} finally {
+				pageChanged(pgId2Use, page);
+				pool.unpin(pgId2Use, inserted);
+				latch.unlockWrite(stamp);
+			}
+		}
+	}
 
-		//END TODO
-		return ret;
+	/**
+	 * Writes the order into a free or new slot of the page, its data right in front of the existing tuples.
+	 * The caller has to make sure that the page has getUnusedBytes of at least orderSize + 2 * INT_SIZE.
+	 * @param pgId the id of the page
+	 * @param page the pinned and latched page
+	 * @param o the order to store
+	 * @param orderSize the encoded size of the order
+	 * @param slotFlags the SLOT_* flags for the slot of the tuple
+	 * @return the index of the slot
+	 * @throws Exception
+	 */
+	private int insertTuple(int pgId, ByteBuffer page, Order o, int orderSize, int slotFlags) throws Exception {
+		int pointerIndex = takeSlot(page);
+		int pointer2Tuple = reserveSpace(page, orderSize + INT_SIZE);
+		writeTuple(page, pointer2Tuple, o, orderSize);
+		writePointer(page, pointerIndex, slotFlags | pointer2Tuple);
+		zones.add(pgId, page, pointer2Tuple + INT_SIZE);
+		logChange(WriteAheadLog.INSERT, pgId, page, pointerIndex);
+		return pointerIndex;
 	}
 
-	private void readNBytes (DataInputStream ds, int bytesNum) throws Exception {
-		while (bytesNum > 0) {
-			ds.readByte();
-			bytesNum--;
+	/**
+	 * Adds the new tuple in the given slot to the o_orderkey index, if there is one. If another order with the
+	 * same o_orderkey is indexed, the tuple is removed again. Has to be called while the page is latched.
+	 * @throws IllegalArgumentException if an order with the same o_orderkey is already stored
+	 */
+	private void indexTuple(int pgId, ByteBuffer page, int slot, Order o) throws PageNotFoundException {
+		OrderKeyIndex index = keyIndex;
+		if (index != null && !index.insert(o.o_orderkey, new TupleIdentifier(pgId, slot))) {
+			freeSlot(page, slot);
+			logChange(WriteAheadLog.DELETE, pgId, page, slot);
+			throw new IllegalArgumentException("An order with o_orderkey " + o.o_orderkey + " is already stored");
 		}
 	}
 
-	private int getUsedSpaceInPg(int pgId) throws Exception {
-		int usedSpaceInPg = 0;
-
-		byte[] p = storage.getPage(pgId);
+	/**
+	 * Stores all given orders, filling new pages completely one after the other.
+	 * @param orders the orders to store
+	 * @return the TupleIdentifiers of the stored orders, in the order of the input
+	 * @throws Exception
+	 */
+	public List<TupleIdentifier> storeOrders(Iterator<Order> orders) throws Exception {
+		return storeOrders(orders, 1.0);
+	}
 
-		ByteArrayInputStream s = new ByteArrayInputStream(p);
-		DataInputStream ds = new DataInputStream(s);
+	/**
+	 * Stores all given orders, filling new pages completely one after the other.
+	 * @param orders the orders to store
+	 * @return the TupleIdentifiers of the stored orders, in the order of the stream
+	 * @throws Exception
+	 */
+	public List<TupleIdentifier> storeOrders(Stream<Order> orders) throws Exception {
+		return storeOrders(orders.iterator(), 1.0);
+	}
 
-		int pointerIndex = 0;
-		int pointer = 0;
-		int prevPointer = 0;
-		try {
-			while (pointerIndex < NUM_POINTERS) {
-				pointer = ds.readInt();
-				if (pointer > 0) {
-					prevPointer = pointer;
-					pointerIndex++;
-				}
-				else break;
-			}
-		} catch (Exception e) {
+	/**
+	 * Stores all orders of the given .tbl file, filling new pages completely one after the other.
+	 * The file is parsed in parallel while the orders are stored (see OrderTblParser.iterator).
+	 * @param tblFile the file with one |-separated order per line
+	 * @return the TupleIdentifiers of the stored orders, in the order of the file
+	 * @throws Exception
+	 */
+	public List<TupleIdentifier> storeOrders(Path tblFile) throws Exception {
+		try (OrderTblParser parser = new OrderTblParser(tblFile)) {
+			return storeOrders(parser.iterator(), 1.0);
 		}
+	}
 
-		int lastTupleLen = 0;
-
-		if (prevPointer != 0) {
-			// Skip header. If pointerIndex is already 5, then header is already has been read fully. No need for more skipping.
-			if (pointerIndex != NUM_POINTERS)
-				ds.readNBytes(HEADER_SIZE - pointerIndex * INT_SIZE - INT_SIZE); // One more INT_SIZE, because it already had read one more pointer
-			if ((prevPointer - HEADER_SIZE) > 0)
-				readNBytes(ds, prevPointer - HEADER_SIZE);
-			lastTupleLen = ds.readInt() + INT_SIZE;	// the 1st 4 bytes of slot is always size of tuple
-		} else {
-			lastTupleLen = 0 + HEADER_SIZE;
+	/**
+	 * Bulk loads the given orders clustered by the given key: the orders are sorted in bounded memory
+	 * (see OrderSorter) and then stored like storeOrders, so orders with close keys end up in the same pages
+	 * and range scans on the key skip most pages (see ZoneMap).
+	 * @param orders the orders to store
+	 * @param key the sort key, e.g. OrderSorter.BY_ORDERDATE
+	 * @param memoryBytes the approximate heap bytes the sort may use for orders
+	 * @param fillFactor the fraction (between 0 and 1) of each page that is filled
+	 * @return the TupleIdentifiers of the stored orders, in the order of the key
+	 * @throws Exception
+	 */
+	public List<TupleIdentifier> storeOrdersSorted(Iterator<Order> orders, Comparator<Order> key, long memoryBytes,
+			double fillFactor) throws Exception {
+		try (OrderSorter sorter = new OrderSorter(key, memoryBytes, null)) {
+			return storeOrderTids(sorter.sort(orders), fillFactor).asList();
 		}
-
-		usedSpaceInPg = prevPointer + lastTupleLen;
-
-		return usedSpaceInPg;
 	}
 
 	/**
-	 * Returns for a given page id the number of unused bytes in that page
-	 * @param pageId the id of the page
-	 * @return the number of bytes that are not used in this page
+	 * Bulk loads all orders of the given .tbl file clustered by the given key, sorting them with at most
+	 * SORT_MEMORY_BYTES bytes of orders in memory (see storeOrdersSorted).
+	 * @param tblFile the file with one |-separated order per line
+	 * @param key the sort key, e.g. OrderSorter.BY_ORDERDATE
+	 * @return the TupleIdentifiers of the stored orders, in the order of the key
 	 * @throws Exception
 	 */
-	public int unusedBytes(int pageId) throws Exception {
-		byte[] page = storage.getPage(pageId);
-		int usedBytes = HEADER_SIZE; // Header is always reserved
-		
-		//TODO - Solution code here
-		usedBytes = getUsedSpaceInPg(pageId);		
-		
-		//END OF TODO
-		
-		return storage.getPageSize() - usedBytes; // Free bytes = PageSize - usedBytes
+	public List<TupleIdentifier> storeOrdersSorted(Path tblFile, Comparator<Order> key) throws Exception {
+		try (OrderTblParser parser = new OrderTblParser(tblFile)) {
+			return storeOrdersSorted(parser.iterator(), key, SORT_MEMORY_BYTES, 1.0);
+		}
 	}
-	
-	
+
 	/**
-	 * Computes the fraction (between 0 and 1) of the space used vs. allocated.
-	 * The larger the fraction is, the less bytes are "wasted".
-	 * @return 
+	 * Bulk loads the given orders. Instead of searching a page for every tuple, the orders are appended
+	 * to a new page until it is filled up to the fill factor, then the next new page is started.
+	 * Every page is pinned and written exactly once. Space left free by the fill factor is made available
+	 * to later calls of storeOrder through the free-space map.
+	 * @param orders the orders to store
+	 * @param fillFactor the fraction (between 0 and 1) of each page that is filled, a page always takes at least one tuple
+	 * @return the TupleIdentifiers of the stored orders, in the order of the input
 	 * @throws Exception
 	 */
-	public double getSpaceUtilization() throws Exception {
-		Set<Integer> idSet = storage.getAllPageIds();
-		
-		//the object we want to return in the end (just initialized with 0 here to make the entire file compile)
-		double ret=0; 
-
-		//TODO - Solution code here
-		int totalUsedSpace = 0;
-		int allocatedSpace = 0;
+	public List<TupleIdentifier> storeOrders(Iterator<Order> orders, double fillFactor) throws Exception {
+		return storeOrderTids(orders, fillFactor).asList();
+	}
 
-		for (int pgId : idSet) {
-			totalUsedSpace += getUsedSpaceInPg(pgId);
-			allocatedSpace += storage.getPageSize();
+	/**
+	 * Bulk loads the given orders like storeOrders, returning their TIDs packed into a TidList.
+	 * @param orders the orders to store
+	 * @param fillFactor the fraction (between 0 and 1) of each page that is filled, a page always takes at least one tuple
+	 * @return the packed TIDs of the stored orders, in the order of the input
+	 * @throws Exception
+	 */
+	public TidList storeOrderTids(Iterator<Order> orders, double fillFactor) throws Exception {
+		if (fillFactor <= 0 || fillFactor > 1) {
+			throw new IllegalArgumentException("fill factor has to be in (0, 1], got " + fillFactor);
 		}
-		
-		ret = (double) totalUsedSpace / allocatedSpace;
-		//end TODO 
+		int pageSize = storage.getPageSize();
+		int fillLimit = (int) (fillFactor * pageSize);
+		TidList tids = new TidList();
+
+		// The pages are new and not yet in the free-space map, so no other thread uses them
+		int pgId = -1;
+		StampedLock latch = null;
+		long stamp = 0;
+		ByteBuffer page = null;
+		try {
+			while (orders.hasNext()) {
+				Order o = orders.next();
+				int orderSize = encodedSize(o);
+				int neededBytes = orderSize + 2 * INT_SIZE;
+				checkTupleSize(orderSize);
+				if (page != null) {
+					int freeBytes = getFreeBytes(page);
+					if (neededBytes > freeBytes || pageSize - freeBytes + neededBytes > fillLimit) {
+						pageChanged(pgId, page);
+						pool.unpin(pgId, true);
+						latch.unlockWrite(stamp);
+						page = null;
+					}
+				}
+				if (page == null) {
+					pgId = allocatePage();
+					latch = latches.get(pgId);
+					stamp = latch.writeLock();
+					page = pool.pin(pgId);
+				}
+				int slot = insertTuple(pgId, page, o, orderSize, 0);
+				indexTuple(pgId, page, slot, o);
+				tids.add(pgId, slot);
+			}
+		} finally {
+			if (page != null) {
+				pageChanged(pgId, page);
+				pool.unpin(pgId, true);
+				latch.unlockWrite(stamp);
+			}
+		}
+		commitLog();
+		return tids;
+	}
+
+	/**
+	 * Replaces the order stored under the given TupleIdentifier. The TupleIdentifier stays valid:
+	 * if the new order fits into the page, it replaces the old one there (compacting the page if needed),
+	 * otherwise it is moved to another page and the slot keeps a forwarding record to its new place.
+	 * @param tid The tuple identifier
+	 * @param o The new order
+	 * @return true if the order was replaced, false if there is no tuple for the TupleIdentifier
+	 * @throws PageNotFoundException Thrown if the page was not found 
+	 * @throws Exception Other exception cases
+	 */
+	public boolean updateOrder(TupleIdentifier tid, Order o) throws PageNotFoundException, Exception {
+		int orderSize = encodedSize(o);
+		checkTupleSize(orderSize);
+		boolean updated = LatchedPage.retry(() -> tryUpdateOrder(tid.getPage(), tid.getSlot(), o, orderSize));
+		commitLog();
+		return updated;
+	}
+
+	/**
+	 * One attempt of updateOrder. While the home page is latched, the page a tuple was moved to is only
+	 * latched if that is possible without waiting, otherwise the attempt gives up and has to be repeated.
+	 * @return DONE, NOT_FOUND or RETRY
+	 */
+	private int tryUpdateOrder(int pgId, int slot, Order o, int orderSize) throws Exception {
+		try (LatchedPage home = LatchedPage.open(latches, pool, pgId, this::pageChanged)) {
+			ByteBuffer page = home.page;
+			int pointer = readPointer(page, slot);
+			// A TupleIdentifier never points to a moved tuple or into an index page
+			if (pointer == 0 || (pointer & SLOT_MOVED) != 0 || isIndexPage(page)) {
+				return NOT_FOUND;
+			}
+			int offset = pointer & POINTER_MASK;
+			if ((pointer & SLOT_FORWARD) == 0) {
+				reindex(Order.readOrderKey(page, offset + INT_SIZE), o.o_orderkey, pgId, slot);
+			}
+			// The scan of the home page visits the order wherever it ends up
+			zones.add(pgId, o);
+
+			if ((pointer & SLOT_FORWARD) != 0) {
+				// Try to replace the tuple where it was moved to, otherwise remove it there
+				int targetPage = page.getInt(offset + INT_SIZE);
+				int targetSlot = page.getInt(offset + 2 * INT_SIZE);
+				try (LatchedPage target = LatchedPage.tryOpen(latches, pool, targetPage, this::pageChanged)) {
+					if (target == null) {
+						return RETRY;
+					}
+					// The key of a forwarded order is read on the page it was moved to
+					reindex(Order.readOrderKey(target.page, (readPointer(target.page, targetSlot) & POINTER_MASK) + INT_SIZE),
+							o.o_orderkey, pgId, slot);
+					target.markChanged();
+					if (replaceTuple(targetPage, target.page, targetSlot, o, orderSize, SLOT_MOVED)) {
+						return DONE;
+					}
+					freeSlot(target.page, targetSlot);
+					logChange(WriteAheadLog.DELETE, targetPage, target.page, targetSlot);
+				}
+			}
+
+			home.markChanged();
+			if (replaceTuple(pgId, page, slot, o, orderSize, 0)) {
+				// The order fits into its home page
+			} else {
+				// Move the order to another page and leave a forwarding record behind
+				TupleIdentifier target = insertTuple(o, orderSize, SLOT_MOVED, false);
+				releaseSpace(page, offset);
+				writePointer(page, slot, 0);
+				int pointer2Forward = reserveSpace(page, FORWARD_SIZE + INT_SIZE);
+				writeForward(page, pointer2Forward, target.getPage(), target.getSlot());
+				writePointer(page, slot, SLOT_FORWARD | pointer2Forward);
+				logChange(WriteAheadLog.UPDATE, pgId, page, slot);
+			}
+			return DONE;
+		}
+	}
+
+	/**
+	 * Moves the entry of an order that is about to be updated in the o_orderkey index (if there is one) to its
+	 * new key, in one step of the index (see OrderKeyIndex.replace), so a concurrent storeOrder or updateOrder
+	 * cannot take the same key in between. Has to be called while the home page of the order is latched,
+	 * before the order is changed.
+	 * @throws IllegalArgumentException if an order with the new key is already stored, the index then stays unchanged
+	 */
+	private void reindex(int oldKey, int newKey, int pgId, int slot) throws PageNotFoundException {
+		OrderKeyIndex index = keyIndex;
+		if (index != null && oldKey != newKey && !index.replace(oldKey, newKey, new TupleIdentifier(pgId, slot))) {
+			throw new IllegalArgumentException("An order with o_orderkey " + newKey + " is already stored");
+		}
+	}
+
+	/**
+	 * Replaces the tuple in the given slot of the pinned and latched page, if the new order fits into the page.
+	 * @return true if the tuple was replaced, false if the order does not fit
+	 */
+	private boolean replaceTuple(int pgId, ByteBuffer page, int slot, Order o, int orderSize, int slotFlags) throws Exception {
+		int offset = page.getInt(HEADER_SIZE + slot * INT_SIZE) & POINTER_MASK;
+		if (getUnusedBytes(page) + page.getInt(offset) < orderSize) {
+			return false;
+		}
+		releaseSpace(page, offset);
+		writePointer(page, slot, 0);
+		int pointer2Tuple = reserveSpace(page, orderSize + INT_SIZE);
+		writeTuple(page, pointer2Tuple, o, orderSize);
+		writePointer(page, slot, slotFlags | pointer2Tuple);
+		zones.add(pgId, page, pointer2Tuple + INT_SIZE);
+		logChange(WriteAheadLog.UPDATE, pgId, page, slot);
+		return true;
+	}
+
+	/**
+	 * Deletes the order stored under the given TupleIdentifier. Its slot and bytes are reused by later inserts.
+	 * @param tid The tuple identifier
+	 * @return true if the order was deleted, false if there is no tuple for the TupleIdentifier
+	 * @throws PageNotFoundException Thrown if the page was not found 
+	 * @throws Exception Other exception cases
+	 */
+	public boolean deleteOrder(TupleIdentifier tid) throws PageNotFoundException, Exception {
+		boolean deleted = LatchedPage.retry(() -> tryDeleteOrder(tid.getPage(), tid.getSlot()));
+		commitLog();
+		return deleted;
+	}
+
+	/**
+	 * One attempt of deleteOrder, latching a second page only without waiting (see tryUpdateOrder).
+	 * @return DONE, NOT_FOUND or RETRY
+	 */
+	private int tryDeleteOrder(int pgId, int slot) throws Exception {
+		try (LatchedPage home = LatchedPage.open(latches, pool, pgId, this::pageChanged)) {
+			ByteBuffer page = home.page;
+			int pointer = readPointer(page, slot);
+			// A TupleIdentifier never points to a moved tuple or into an index page
+			if (pointer == 0 || (pointer & SLOT_MOVED) != 0 || isIndexPage(page)) {
+				return NOT_FOUND;
+			}
+			int key;
+			if ((pointer & SLOT_FORWARD) == 0) {
+				key = Order.readOrderKey(page, (pointer & POINTER_MASK) + INT_SIZE);
+			} else {
+				int offset = pointer & POINTER_MASK;
+				int targetPage = page.getInt(offset + INT_SIZE);
+				try (LatchedPage target = LatchedPage.tryOpen(latches, pool, targetPage, this::pageChanged)) {
+					if (target == null) {
+						return RETRY;
+					}
+					int targetSlot = page.getInt(offset + 2 * INT_SIZE);
+					key = Order.readOrderKey(target.page, (readPointer(target.page, targetSlot) & POINTER_MASK) + INT_SIZE);
+					target.markChanged();
+					freeSlot(target.page, targetSlot);
+					logChange(WriteAheadLog.DELETE, targetPage, target.page, targetSlot);
+				}
+			}
+			home.markChanged();
+			freeSlot(page, slot);
+			logChange(WriteAheadLog.DELETE, pgId, page, slot);
+			OrderKeyIndex index = keyIndex;
+			if (index != null) {
+				index.delete(key);
+			}
+			return DONE;
+		}
+	}
+
+	/**
+	 * Returns the Order object corresponding to the given TupleIdentifier.
+	 * @param tid The tuple identifier
+	 * @return the order object, NULL if the tuple was not found in the page
+	 * @throws PageNotFoundException Thrown if the page was not found 
+	 * @throws Exception Other exception cases
+	 */
+	public Order getOrder(TupleIdentifier tid) throws PageNotFoundException, Exception {
+		long startNanos = System.nanoTime();
+		long startAllocated = StorageMetrics.allocatedBytes();
+		GetOrderEvent event = new GetOrderEvent();
+		event.begin();
+		Order o = readOrder(tid.getPage(), tid.getSlot(), false);
+		metrics.readDone(startNanos, startAllocated, o != null);
+		if (event.shouldCommit()) {
+			event.pageId = tid.getPage();
+			event.slot = tid.getSlot();
+			event.found = o != null;
+			event.commit();
+		}
+		return o;
+	}
+
+	/**
+	 * Reads the order in the given slot, following a forwarding record.
+	 * @param moved true to read the tuple a forwarding record points to, false to read a slot addressed by a
+	 *        TupleIdentifier, which never points to a moved tuple directly (its slot may have been reused by one)
+	 */
+	private Order readOrder(int pgId, int slot, boolean moved) throws PageNotFoundException, IOException {
+		StampedLock latch = latches.get(pgId);
+		ByteBuffer p = pool.pin(pgId);
+		
+		//the object we want to return in the end, just initialized with NULL to make the file compile
+		Order ret = null;
+		//TODO - Solution code here
+		try {
+			// First read the tuple without latching the page; if a writer changed the page in the meantime
+			// (validate fails, or the read ran into inconsistent bytes) read it again under the latch
+			long stamp = latch.tryOptimisticRead();
+			if (stamp != 0) {
+				try {
+					int pointer = readPointer(p, slot);
+					if ((pointer & SLOT_FORWARD) == 0) {
+						ret = pointer == 0 || ((pointer & SLOT_MOVED) != 0) != moved ? null : new Order(p, (pointer & POINTER_MASK) + INT_SIZE);
+						if (latch.validate(stamp)) {
+							return ret;
+						}
+					}
+				} catch (IOException | RuntimeException e) {
+					// torn read, see above
+				}
+			}
+
+			stamp = latch.readLock();
+			try {
+				// Check that the slot exists and is used
+				int pointer = readPointer(p, slot);
+				if (pointer == 0 || ((pointer & SLOT_MOVED) != 0) != moved) {
+					return null;
+				}
+
+				// Decode the tuple behind its length, unless the slot only forwards to the tuple
+				int tupleIndex = pointer & POINTER_MASK;
+				if ((pointer & SLOT_FORWARD) == 0) {
+					return new Order(p, tupleIndex + INT_SIZE);
+				}
+				// The latch stays held, so the tuple cannot move again before it is read
+				ret = readOrder(p.getInt(tupleIndex + INT_SIZE), p.getInt(tupleIndex + 2 * INT_SIZE), true);
+			} finally {
+				latch.unlockRead(stamp);
+			}
+		} finally {
+			pool.unpin(pgId, false);
+		}
+
+		//END TODO
+		return ret;
+	}
+	/**
+	 * Returns the orders for the given TupleIdentifiers, like getOrder for each of them, but reading every
+	 * page only once: the TupleIdentifiers are sorted by page and slot, each page is pinned and latched once
+	 * for all requested slots, and the pages are read ahead in page order.
+	 * @param tids The tuple identifiers, in any order and possibly with duplicates
+	 * @return the orders in the order of the tuple identifiers, null where there is no tuple
+	 * @throws PageNotFoundException Thrown if a page was not found 
+	 * @throws Exception Other exception cases
+	 */
+	public List<Order> getOrders(Collection<TupleIdentifier> tids) throws PageNotFoundException, Exception {
+		return getOrders(new TidList(tids));
+	}
+
+	/**
+	 * Returns the orders for the given packed TIDs (see getOrders).
+	 * @param tids The packed TIDs, in any order and possibly with duplicates
+	 * @return the orders in the order of the TIDs, null where there is no tuple
+	 * @throws PageNotFoundException Thrown if a page was not found 
+	 * @throws IOException
+	 */
+	public List<Order> getOrders(TidList tids) throws PageNotFoundException, IOException {
+		TidList sorted = new TidList(tids.size());
+		for (int i = 0; i < tids.size(); i++) {
+			sorted.add(tids.get(i));
+		}
+		sorted.sort();
+		sorted.removeDuplicates();
+
+		// The distinct pages, to read them ahead
+		TidList runStarts = new TidList();
+		for (int i = 0; i < sorted.size(); i = sorted.pageRunEnd(i)) {
+			runStarts.add(i);
+		}
+		Order[] orders = new Order[sorted.size()];
+		int readAhead = 0;
+		for (int run = 0; run < runStarts.size(); run++) {
+			if (readAhead <= run + READ_AHEAD_PAGES / 2) {
+				readAhead = readAhead(sorted, runStarts, Math.max(readAhead, run + 1));
+			}
+			int from = (int) runStarts.get(run);
+			readOrders(sorted, from, sorted.pageRunEnd(from), orders);
+		}
+
+		List<Order> result = new ArrayList<Order>(tids.size());
+		for (int i = 0; i < tids.size(); i++) {
+			result.add(orders[sorted.binarySearch(tids.get(i))]);
+		}
+		return result;
+	}
+
+	/**
+	 * Prefetches the pages of the next READ_AHEAD_PAGES page runs from the given one on, in the background.
+	 * @return the first run not prefetched
+	 */
+	private int readAhead(TidList sorted, TidList runStarts, int fromRun) {
+		int toRun = Math.min(fromRun + READ_AHEAD_PAGES, runStarts.size());
+		if (fromRun < toRun) {
+			int[] pageIds = new int[toRun - fromRun];
+			for (int run = fromRun; run < toRun; run++) {
+				pageIds[run - fromRun] = TupleIdentifier.pageOf(sorted.get((int) runStarts.get(run)));
+			}
+			READ_AHEAD.execute(() -> {
+				for (int pgId : pageIds) {
+					pool.prefetch(pgId);
+				}
+			});
+		}
+		return toRun;
+	}
+
+	/**
+	 * Decodes the tuples of the TIDs from (inclusive) to end (exclusive) of the sorted list, which are all on
+	 * the same page, into orders at the same indexes. Forwarded tuples are read while the page stays latched.
+	 */
+	private void readOrders(TidList sorted, int from, int end, Order[] orders) throws PageNotFoundException, IOException {
+		int pgId = TupleIdentifier.pageOf(sorted.get(from));
+		StampedLock latch = latches.get(pgId);
+		long stamp = latch.readLock();
+		try {
+			ByteBuffer page = pool.pin(pgId);
+			try {
+				for (int i = from; i < end; i++) {
+					int pointer = readPointer(page, TupleIdentifier.slotOf(sorted.get(i)));
+					if (pointer == 0 || (pointer & SLOT_MOVED) != 0) {
+						continue;
+					}
+					int offset = (pointer & POINTER_MASK) + INT_SIZE;
+					if ((pointer & SLOT_FORWARD) == 0) {
+						orders[i] = new Order(page, offset);
+					} else {
+						orders[i] = readOrder(page.getInt(offset), page.getInt(offset + INT_SIZE), true);
+					}
+				}
+			} finally {
+				pool.unpin(pgId, false);
+			}
+		} finally {
+			latch.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Builds a B+-tree index on o_orderkey over all orders of the table (see OrderKeyIndex.build) and keeps it
+	 * up to date from then on: storeOrder, storeOrders, updateOrder and deleteOrder change it along with the table,
+	 * and reject an order whose o_orderkey is already stored. The pages of an index built before, and of one left
+	 * over from before a crash (the index is not logged), are reused for the new one. Must not run concurrently
+	 * with other uses of the table.
+	 * @param fillFactor the fraction (between 0 and 1) of each node that is filled, less leaves room for later inserts
+	 * @return the index
+	 * @throws IllegalArgumentException if the table holds two orders with the same o_orderkey, the table has no index then
+	 * @throws Exception
+	 */
+	public OrderKeyIndex createOrderKeyIndex(double fillFactor) throws Exception {
+		// The key and the position in tids of every order, sorted by key
+		TidList keysAndPositions = new TidList();
+		TidList tids = new TidList();
+		List<Integer> indexPages = new ArrayList<Integer>();
+		for (int pgId = 0; pgId < storage.numberOfPagesUsed(); pgId++) {
+			ByteBuffer page = pool.pin(pgId);
+			boolean indexPage = isIndexPage(page);
+			pool.unpin(pgId, false);
+			if (indexPage) {
+				indexPages.add(pgId);
+				continue;
+			}
+			scanPage(pgId, OrderPredicate.all(), (pageId, slot, buffer, offset) -> {
+				keysAndPositions.add(((long) Order.readOrderKey(buffer, offset) << 32) | tids.size());
+				tids.add(pageId, slot);
+			});
+		}
+		keysAndPositions.sort();
+		int[] keys = new int[tids.size()];
+		TidList sortedTids = new TidList(tids.size());
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = (int) (keysAndPositions.get(i) >> 32);
+			sortedTids.add(tids.get((int) keysAndPositions.get(i)));
+		}
+		keyIndex = null;
+		keyIndex = OrderKeyIndex.build(pool, keys, sortedTids, fillFactor, indexPages);
+		return keyIndex;
+	}
+
+	/**
+	 * Attaches an existing index, e.g. one opened again with the root page of a reopened MappedBlockStorage,
+	 * or detaches the index with null. The index has to match the orders of the table.
+	 * @param index the index on o_orderkey, or null
+	 */
+	public void setOrderKeyIndex(OrderKeyIndex index) {
+		keyIndex = index;
+	}
+
+	public OrderKeyIndex getOrderKeyIndex() {
+		return keyIndex;
+	}
+
+	/**
+	 * Returns the order with the given o_orderkey: with an index (see createOrderKeyIndex) by one lookup in it
+	 * and getOrder, otherwise by a scan of all pages whose zone map does not rule out the key.
+	 * @param orderkey the o_orderkey
+	 * @return the order, NULL if there is no order with that key
+	 * @throws Exception
+	 */
+	public Order getOrderByKey(int orderkey) throws Exception {
+		OrderKeyIndex index = keyIndex;
+		if (index == null) {
+			TableScan scan = scan(OrderPredicate.orderKeyBetween(orderkey, orderkey));
+			return scan.hasNext() ? scan.next() : null;
+		}
+		TupleIdentifier tid = index.lookup(orderkey);
+		Order o = tid == null ? null : getOrder(tid);
+		// If the order was deleted since the lookup, its slot may hold another order already
+		return o != null && o.o_orderkey == orderkey ? o : null;
+	}
+
+	/**
+	 * Returns the orders with an o_orderkey between the given keys (both inclusive), sorted by o_orderkey:
+	 * with an index by a range scan over its leaves and getOrders, otherwise by a scan of the table.
+	 * @param from the smallest o_orderkey
+	 * @param to the largest o_orderkey
+	 * @return the orders, sorted by o_orderkey
+	 * @throws Exception
+	 */
+	public List<Order> getOrdersByKey(int from, int to) throws Exception {
+		OrderKeyIndex index = keyIndex;
+		if (index == null) {
+			List<Order> orders = orders(OrderPredicate.orderKeyBetween(from, to), false).collect(Collectors.toList());
+			orders.sort(OrderSorter.BY_ORDERKEY);
+			return orders;
+		}
+		List<Order> orders = getOrders(index.range(from, to));
+		// Orders deleted since the range scan are left out, see getOrderByKey
+		orders.removeIf(o -> o == null || o.o_orderkey < from || o.o_orderkey > to);
+		return orders;
+	}
+
+	/**
+	 * Returns a cursor over all orders of the table, in page order.
+	 * @return the cursor
+	 */
+	public TableScan scan() {
+		return scan(OrderPredicate.all());
+	}
+
+	/**
+	 * Returns a cursor over the orders of the table that match the given predicate, in page order.
+	 * The predicate is evaluated on the bytes in the page, only matching orders are decoded.
+	 * @param predicate the condition the returned orders have to fulfill
+	 * @return the cursor
+	 */
+	public TableScan scan(OrderPredicate predicate) {
+		return new TableScan(0, storage.numberOfPagesUsed(), predicate);
+	}
+
+	/**
+	 * Hands every tuple of the page that matches the predicate to the visitor, in slot order.
+	 * A forwarded tuple is visited under the TupleIdentifier of its home slot, the moved tuple itself is skipped
+	 * on the page it was moved to. A page whose zone map rules out the predicate is not read at all.
+	 * @param pgId the id of the page
+	 * @param predicate the condition on the tuples
+	 * @param visitor receives the matching tuples
+	 * @throws PageNotFoundException
+	 * @throws IOException
+	 */
+	private void scanPage(int pgId, OrderPredicate predicate, TupleVisitor visitor) throws PageNotFoundException, IOException {
+		if (!predicate.mayMatch(zones, pgId)) {
+			return;
+		}
+		StampedLock latch = latches.get(pgId);
+		long stamp = latch.readLock();
+		try {
+			ByteBuffer page = pool.pin(pgId);
+			try {
+				int slotCount = page.getInt(SLOT_COUNT_OFFSET);
+				for (int slot = 0; slot < slotCount; slot++) {
+					int pointer = page.getInt(HEADER_SIZE + slot * INT_SIZE);
+					if (pointer == 0 || (pointer & SLOT_MOVED) != 0) {
+						continue;
+					}
+					int offset = (pointer & POINTER_MASK) + INT_SIZE;
+					if ((pointer & SLOT_FORWARD) != 0) {
+						// As in getOrder, the home latch stays held while the moved tuple is read
+						scanMovedTuple(pgId, slot, page.getInt(offset), page.getInt(offset + INT_SIZE), predicate, visitor);
+					} else if (predicate.test(page, offset)) {
+						visitor.visit(pgId, slot, page, offset);
+					}
+				}
+			} finally {
+				pool.unpin(pgId, false);
+			}
+		} finally {
+			latch.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Visits the tuple that was moved from the given home slot to the given target slot, if it matches the predicate.
+	 */
+	private void scanMovedTuple(int homePage, int homeSlot, int targetPage, int targetSlot, OrderPredicate predicate,
+			TupleVisitor visitor) throws PageNotFoundException, IOException {
+		StampedLock latch = latches.get(targetPage);
+		long stamp = latch.readLock();
+		try {
+			ByteBuffer page = pool.pin(targetPage);
+			try {
+				int pointer = readPointer(page, targetSlot);
+				int offset = (pointer & POINTER_MASK) + INT_SIZE;
+				if (pointer != 0 && predicate.test(page, offset)) {
+					visitor.visit(homePage, homeSlot, page, offset);
+				}
+			} finally {
+				pool.unpin(targetPage, false);
+			}
+		} finally {
+			latch.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Returns the ids of all pages as a stream. A parallel stream splits the ids into ranges of pages
+	 * (see PageRangeSpliterator) that the fork-join pool processes on all cores.
+	 * @param parallel true for a parallel stream
+	 * @return the stream of page ids, in ascending order
+	 */
+	public IntStream pageIds(boolean parallel) {
+		return StreamSupport.intStream(new PageRangeSpliterator(0, storage.numberOfPagesUsed()), parallel);
+	}
+
+	/**
+	 * Returns the orders of the table that match the given predicate as a stream, in page order.
+	 * @param predicate the condition the orders have to fulfill, evaluated before they are decoded
+	 * @param parallel true for a parallel stream, which scans ranges of pages concurrently
+	 * @return the stream of orders
+	 */
+	public Stream<Order> orders(OrderPredicate predicate, boolean parallel) {
+		return pageIds(parallel).mapToObj(pgId -> {
+			List<Order> orders = new ArrayList<Order>();
+			scanPageUnchecked(pgId, predicate, (pageId, slot, buffer, offset) -> orders.add(new Order(buffer, offset)));
+			return orders;
+		}).flatMap(List::stream);
+	}
+
+	/**
+	 * Computes an aggregate over the tuples that match the given predicate, in parallel. Every range of pages
+	 * is scanned into its own partial aggregate, created by the factory, and the partial aggregates are
+	 * merged at the end, so the threads never share an aggregate.
+	 * @param predicate the condition on the tuples
+	 * @param factory creates an empty partial aggregate
+	 * @return the merged aggregate
+	 */
+	public <A extends PartialAggregate<A>> A aggregate(OrderPredicate predicate, Supplier<A> factory) {
+		return pageIds(true).collect(factory, (partial, pgId) -> scanPageUnchecked(pgId, predicate, partial), A::merge);
+	}
+
+	/**
+	 * Computes SUM(o_totalprice) GROUP BY o_orderstatus over the orders that match the given predicate, in parallel.
+	 * @param predicate the condition on the orders
+	 * @return the sum of the total prices for each order status, sorted by order status
+	 */
+	public Map<Character, Double> sumTotalPriceByStatus(OrderPredicate predicate) {
+		return aggregate(predicate, StatusPriceSums::new).toMap();
+	}
+
+	/**
+	 * scanPage for lambdas, with the checked exceptions wrapped into unchecked ones.
+	 */
+	private void scanPageUnchecked(int pgId, OrderPredicate predicate, TupleVisitor visitor) {
+		try {
+			scanPage(pgId, predicate, visitor);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} catch (PageNotFoundException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Returns the used bytes of the page, -1 for a page of an OrderKeyIndex.
+	 */
+	private int getUsedSpaceInPg(int pgId) throws PageNotFoundException {
+		StampedLock latch = latches.get(pgId);
+		long stamp = latch.readLock();
+		try {
+			ByteBuffer p = pool.pin(pgId);
+			try {
+				return isIndexPage(p) ? -1 : p.capacity() - getUnusedBytes(p);
+			} finally {
+				pool.unpin(pgId, false);
+			}
+		} finally {
+			latch.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Returns for a given page id the number of unused bytes in that page
+	 * @param pageId the id of the page
+	 * @return the number of bytes that are not used in this page, 0 for a page of an OrderKeyIndex (no tuples can be stored there)
+	 * @throws Exception
+	 */
+	public int unusedBytes(int pageId) throws Exception {
+		int usedBytes = HEADER_SIZE; // Header is always reserved
+		
+		//TODO - Solution code here
+		long startNanos = System.nanoTime();
+		usedBytes = getUsedSpaceInPg(pageId);
+		if (usedBytes < 0) {
+			usedBytes = storage.getPageSize();
+		}
+		metrics.headerReads.increment();
+		metrics.unusedBytesLatency.record(System.nanoTime() - startNanos);
+		
+		//END OF TODO
+		
+		return storage.getPageSize() - usedBytes; // Free bytes = PageSize - usedBytes
+	}
+	
+	
+	/**
+	 * Computes the fraction (between 0 and 1) of the space used vs. allocated.
+	 * The larger the fraction is, the less bytes are "wasted".
+	 * The value comes from the space statistics in O(1), see getSpaceStatistics.
+	 * @return 
+	 * @throws Exception
+	 */
+	public double getSpaceUtilization() throws Exception {
+		//the object we want to return in the end (just initialized with 0 here to make the entire file compile)
+		double ret=0; 
+
+		//TODO - Solution code here
+		ret = statistics.getUtilization();
+		//end TODO 
 
 		return ret;
 	}
+
+	/**
+	 * Returns the space statistics of the pages (utilization, fill histogram, fragmentation), which are
+	 * kept up to date with every change and can be read at any time.
+	 * @return the live statistics
+	 */
+	public SpaceStatistics getSpaceStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * Computes the fraction of the space used vs. allocated by reading every page, e.g. to check the space statistics.
+	 * Like the statistics, it only counts the pages of the table, not those of an OrderKeyIndex.
+	 * @return the fraction (between 0 and 1)
+	 */
+	public double computeSpaceUtilization() {
+		// The pages are read in parallel, one range of pages per thread (see pageIds)
+		LongSummaryStatistics usedSpace = pageIds(true).mapToLong(pgId -> {
+			try {
+				return getUsedSpaceInPg(pgId);
+			} catch (PageNotFoundException e) {
+				throw new IllegalStateException(e);
+			}
+		}).filter(used -> used >= 0).summaryStatistics();
+		return usedSpace.getCount() == 0 ? 0 : (double) usedSpace.getSum() / (usedSpace.getCount() * storage.getPageSize());
+	}
 	
 	
 	/**
 	 * This is the main method that reads |-separated Order tuples from the provided file.
 	 * It does a few simple checks to see if the to be implemented methods work correctly.
-	 * @param args
+	 * With "bench" as first argument it runs the Benchmark instead, with the remaining arguments as its options.
+	 * @param args the .tbl file to read (orders_small.tbl in the working directory by default), or bench and its options
 	 */
 	public static void main(String[] args) {
 		try {
 
+			if (args.length > 0 && args[0].equals("bench")) {
+				new Benchmark(Arrays.copyOfRange(args, 1, args.length)).run();
+				return;
+			}
+
 			SlottedPageExercise store = new SlottedPageExercise();
+			//an (empty) index on o_orderkey, so every tuple can be found again by its key
+			store.createOrderKeyIndex(1.0);
 			
 			
-			
-			BufferedReader reader = new BufferedReader(new FileReader("/Users/talanta/Documents/Databases/DB WS 2021/Java projects/Database-exercises/Ex1/dbs/orders_small.tbl"));
+			BufferedReader reader = new BufferedReader(new FileReader(args.length > 0 ? args[0] : "orders_small.tbl"));
 			
 			String line;
 
-			TupleIdentifier tempTID = null;
-			TupleIdentifier previousTID = null;
 			Order previousOrder = null;
 
 			
 			//insert all tuples from the given file
 			
-			//after inserting a tuple, we try to load the previously inserted tuple and compare
+			//after inserting a tuple, we try to load the previously inserted tuple by its key and compare
 			//it to the original order object that we created for the insertion
 			int inserted = 0;
 			int error = 0;
 			while ((line = reader.readLine()) != null) {
 				Order order = new Order(line);
-				tempTID = store.storeOrder(order);
+				store.storeOrder(order);
 				inserted++;
-				if (previousTID!=null) {
-					Order whatWeGetNow = store.getOrder(previousTID);
+				if (previousOrder!=null) {
+					Order whatWeGetNow = store.getOrderByKey(previousOrder.o_orderkey);
 					if (!previousOrder.equals(whatWeGetNow)) {
 						//seems there is some bug, let's output some (perhaps) useful information
 					
 						System.out.println("wanted:\t"+previousOrder.toString());
-						System.out.println("got:\t"+whatWeGetNow.toString());
+						System.out.println("got:\t"+whatWeGetNow);
 						error++;
 					}
 
 				}
-				previousTID = tempTID;
 				previousOrder = order;
 			}
 			reader.close();
@@ -419,18 +1639,18 @@ public class SlottedPageExercise {
 			}
 			
 
-			//tempTID should point now to the last inserted tuple, let's see
-			//if this corresponds to the last tuple in the file we just read from
+			//the last tuple in the file we just read from has the key 4000, let's see
+			//if we find it by its key
 
 			boolean check = false;
-			Order o = store.getOrder(tempTID);
+			Order o = store.getOrderByKey(4000);
 			Order comp = new Order(
 					"4000|69568|F|133466.83|1992-01-04|5-LOW|Clerk#000000339|0|le carefully closely even pinto beans. regular, ironic foxes against the|");
-			if (o.equals(comp)) {
+			if (o != null && o.equals(comp)) {
 				System.out.println("Successfully checked example tuple");
 				check = true;
 			} else {
-				System.out.println("Got: " + o.toString()
+				System.out.println("Got: " + o
 						+ ", Wanted: 4000|69568|F|133466.83|1992-01-04|5-LOW|Clerk#000000339|0|le carefully closely even pinto beans. regular, ironic foxes against the|");
 			}
 
@@ -454,9 +1674,101 @@ public class SlottedPageExercise {
 	}
 	
 	/**
-	 * This class acts like a simple block storage. It can be used to retrieve a
-	 * the contents of a page (aka. block) given the id of the page,
-	 * to write the page content back given an id, and it can allocate new pages and returns their id.
+	 * The contract of a block storage as used by SlottedPageExercise.
+	 * Pages are identified by consecutive ids starting at 0 and all have the same size.
+	 *
+	 */
+	private interface BlockStorage {
+
+		/**
+		 * Returns the page size in bytes
+		 * @return page size
+		 */
+		int getPageSize();
+
+		/**
+		 * Returns the ids of all pages that were allocated.
+		 * @return the set of page ids
+		 */
+		Set<Integer> getAllPageIds();
+
+		/**
+		 * Creates a new, zeroed page and returns its id.
+		 * @return The id of the created page.
+		 */
+		int initNewPage();
+
+		/**
+		 * Returns the content of the page with the given id.
+		 * Whether changes to the returned array are visible without storePage depends on the implementation,
+		 * so callers always have to store a modified page.
+		 * @param id The id of the page to return
+		 * @return The byte[] (page) that corresponds to the given page id
+		 * @throws PageNotFoundException
+		 */
+		byte[] getPage(int id) throws PageNotFoundException;
+
+		/**
+		 * Returns a ByteBuffer of exactly one page that reads and writes the stored page directly, without copying.
+		 * @param id The id of the page to return
+		 * @return A view of the page, with position 0 and limit getPageSize()
+		 * @throws PageNotFoundException
+		 */
+		ByteBuffer getPageView(int id) throws PageNotFoundException;
+
+		/**
+		 * Stores a page in the BlockStorage.
+		 * @param id The id indicating the page to be overwritten by the given byte array.
+		 * @param content The content of the page to be stored for the given id.
+		 */
+		void storePage(int id, byte[] content);
+
+		/**
+		 * Returns the number of total pages known.
+		 * @return number of total pages known.
+		 */
+		int numberOfPagesUsed();
+
+		/**
+		 * Returns true if the page with the given id was allocated.
+		 * @param id The id of the page
+		 * @return true if getPage would find the page
+		 */
+		boolean containsPage(int id);
+
+		/**
+		 * Returns the number of bytes allocated in this storage.
+		 * @return The total number of bytes allocated.
+		 */
+		long totalBytesAllocated();
+
+		/**
+		 * Makes all stored pages durable, if the storage is persistent.
+		 */
+		void flush();
+
+		/**
+		 * Hints that the page with the given id will be read soon, so a persistent storage can start reading it.
+		 * Unknown ids are ignored.
+		 * @param id The id of the page
+		 */
+		void prefetch(int id);
+
+		/**
+		 * Returns true if getPageView returns the same memory for a page on every call, for as long as the storage
+		 * is open, so a buffer pool can work on the views directly instead of copying the pages into frames of its own.
+		 * @return true if the views of a page never go stale
+		 */
+		default boolean hasStableViews() {
+			return false;
+		}
+
+	}
+
+	/**
+	 * This class acts like a simple block storage. It can be used to retrieve a
+	 * the contents of a page (aka. block) given the id of the page,
+	 * to write the page content back given an id, and it can allocate new pages and returns their id.
 	 * The content of a page is given as a byte[] of fixed size.
 	 * The FakeBlockStorage does not know or care about the actual contents of the page, it just
 	 * handles byte arrays.
@@ -464,258 +1776,5530 @@ public class SlottedPageExercise {
 	 *
 	 */
 	
-	private static class FakeBlockStorage {
+	private static class FakeBlockStorage implements BlockStorage {
+
+		/**
+		 * The page size of FakeBlockStorage(), in bytes
+		 */
+		static final int DEFAULT_PAGE_SIZE = 512;
+
+		/**
+		 * Page size in bytes
+		 */
+		private final int pageSize;
+		
+		/**
+		 * Internally used Map to store the mapping of page ids to byte arrays (i.e., pages).
+		 */
+		Map<Integer, byte[]> storage;
+
+		/**
+		 * Internal counter to keep track about the pages already created, shared by all threads.
+		 */
+		AtomicInteger nextempty;
+
+
+		/**
+		 * Instantiates the FakeBlockStorage with pages of DEFAULT_PAGE_SIZE bytes.
+		 */
+		public FakeBlockStorage() {
+			this(DEFAULT_PAGE_SIZE);
+		}
+
+		/**
+		 * Instantiates the FakeBlockStorage.
+		 * @param pageSize the page size in bytes
+		 */
+		public FakeBlockStorage(int pageSize) {
+			this.pageSize = pageSize;
+			//internally pages are kept in a ConcurrentHashMap, that maps page id to the page content 
+			storage = new ConcurrentHashMap<Integer, byte[]>();
+			//init the next page id to be used to zero
+			nextempty = new AtomicInteger();
+		}
+
+		/**
+		 * Returns the page size in bytes
+		 * @return page size 
+		 */
+		public int getPageSize() {
+			return pageSize;
+		}
+
+		/**
+		 * Returns an array of the ids of pages that were allocated.
+		 * @return 
+		 */
+		public Set<Integer> getAllPageIds() {
+			return storage.keySet();
+		}
+
+		/**
+		 * Creates a new page and returns its id.
+		 * @return The id of the created page.
+		 */
+		public int initNewPage() {
+			int id = nextempty.getAndIncrement();
+			storage.put(id, new byte[pageSize]);
+			return id;
+		}
+
+		/**
+		 * Given a page id, this method returns the corresponding byte array of the page content.
+		 * If the page id is not known, a PageNotFoundException is thrown.
+		 * @param id The id of the page to return
+		 * @return The byte[] (page) that corresponds to the given page id
+		 * @throws PageNotFoundException
+		 */
+		public byte[] getPage(int id) throws PageNotFoundException {
+			if (!storage.containsKey(id)) {
+				throw new PageNotFoundException("page " + id + " not known");
+			}
+			return storage.get(id);
+		}
+
+		/**
+		 * Stores a page in the BlockStorage.
+		 * @param id The id indicating the page to be overwritten by the given byte array.
+		 * @param content The content of the page to be stored for the given id.
+		 */
+		public void storePage(int id, byte[] content) {
+			storage.put(id, content);
+		}
+
+		/**
+		 * Returns the number of total pages known. 
+		 * @return number of total pages known.
+		 */
+		public int numberOfPagesUsed() {
+			return storage.size();
+		}
+
+		public boolean containsPage(int id) {
+			return storage.containsKey(id);
+		}
+
+		/**
+		 * Calculates and returns the number of bytes allocated in this storage.
+		 * It is simply the number of pages known times the size of an individual page.
+		 * @return The tocal number of bytes allocated.
+		 */
+		public long totalBytesAllocated() {
+			return (long) storage.size() * pageSize;
+		}
+
+		/**
+		 * Returns the page content wrapped in a ByteBuffer, changes to the buffer change the page.
+		 * @param id The id of the page to return
+		 * @return A ByteBuffer backed by the page's byte[]
+		 * @throws PageNotFoundException
+		 */
+		public ByteBuffer getPageView(int id) throws PageNotFoundException {
+			return ByteBuffer.wrap(getPage(id));
+		}
+
+		/**
+		 * Nothing to do, the pages only live in memory.
+		 */
+		public void flush() {
+		}
+
+		/**
+		 * Nothing to do, the pages are in memory already.
+		 */
+		public void prefetch(int id) {
+		}
+
+	}
+
+	/**
+	 * A block storage that keeps its pages outside the Java heap, in direct ByteBuffers of ARENA_BYTES bytes each.
+	 * Page i is the slice at i * pageSize of the arenas, so there is no object per page and no map from page ids
+	 * to pages: the array of arenas is the whole page directory. Millions of pages thus neither enlarge the heap
+	 * nor add work for the garbage collector, and looking up a page does not box its id.
+	 * Like FakeBlockStorage, the pages only live as long as the storage.
+	 *
+	 */
+	private static class OffHeapBlockStorage implements BlockStorage {
+
+		/**
+		 * The number of bytes allocated at once
+		 */
+		static final int ARENA_BYTES = 64 * 1024 * 1024;
+
+		private final int pageSize;
+		private final int pagesPerArena;
+		private volatile ByteBuffer[] arenas = new ByteBuffer[0];
+		private volatile int pageCount;
+
+		/**
+		 * Creates an empty off-heap storage.
+		 * @param pageSize the page size in bytes
+		 */
+		public OffHeapBlockStorage(int pageSize) {
+			this.pageSize = pageSize;
+			this.pagesPerArena = Math.max(1, ARENA_BYTES / pageSize);
+		}
+
+		public int getPageSize() {
+			return pageSize;
+		}
+
+		public Set<Integer> getAllPageIds() {
+			return new PageIdRange(pageCount);
+		}
+
+		/**
+		 * Creates a new page, allocating a new arena if the last one is full. Direct buffers are zeroed on allocation.
+		 */
+		public synchronized int initNewPage() {
+			int id = pageCount;
+			int arena = id / pagesPerArena;
+			if (arena >= arenas.length) {
+				ByteBuffer[] grown = Arrays.copyOf(arenas, arena + 1);
+				grown[arena] = ByteBuffer.allocateDirect(pagesPerArena * pageSize);
+				arenas = grown;
+			}
+			pageCount = id + 1;
+			return id;
+		}
+
+		public byte[] getPage(int id) throws PageNotFoundException {
+			byte[] page = new byte[pageSize];
+			getPageView(id).get(page);
+			return page;
+		}
+
+		public ByteBuffer getPageView(int id) throws PageNotFoundException {
+			if (id < 0 || id >= pageCount) {
+				throw new PageNotFoundException("page " + id + " not known");
+			}
+			return slice(id);
+		}
+
+		public void storePage(int id, byte[] content) {
+			if (id < 0 || id >= pageCount) {
+				throw new IllegalArgumentException("page " + id + " not known");
+			}
+			slice(id).put(content, 0, pageSize);
+		}
+
+		/**
+		 * A page is always the same slice of its ARENA_BYTES region, which is never freed.
+		 */
+		public boolean hasStableViews() {
+			return true;
+		}
+
+		public int numberOfPagesUsed() {
+			return pageCount;
+		}
+
+		public boolean containsPage(int id) {
+			return id >= 0 && id < pageCount;
+		}
+
+		public long totalBytesAllocated() {
+			return (long) pageCount * pageSize;
+		}
+
+		/**
+		 * Nothing to do, the pages only live in memory.
+		 */
+		public void flush() {
+		}
+
+		/**
+		 * Nothing to do, the pages are in memory already.
+		 */
+		public void prefetch(int id) {
+		}
+
+		/**
+		 * Returns the slice of the arena holding the given page.
+		 */
+		private ByteBuffer slice(int id) {
+			return arenas[id / pagesPerArena].slice((id % pagesPerArena) * pageSize, pageSize);
+		}
+
+	}
+
+	/**
+	 * A persistent block storage that keeps all pages in one file. The file is mapped into memory in
+	 * segments of SEGMENT_BYTES bytes, so a page is just a slice of a MappedByteBuffer and reading or
+	 * writing it goes straight to the OS page cache. Tables can therefore be larger than the heap (or RAM),
+	 * and reopening the file makes all pages available again without loading them.
+	 * 
+	 * The first block of the file holds the storage header (magic number, page size, number of pages),
+	 * page i starts at byte (i+1) * pageSize.
+	 *
+	 */
+	private static class MappedBlockStorage implements BlockStorage, Closeable {
+
+		/**
+		 * The number of bytes mapped at once
+		 */
+		static final int SEGMENT_BYTES = 64 * 1024 * 1024;
+
+		/**
+		 * Marks a file written by MappedBlockStorage
+		 */
+		static final int MAGIC = 0x53504731;
+
+		/**
+		 * Offsets of the fields in the storage header
+		 */
+		static final int MAGIC_OFFSET = 0;
+		static final int PAGE_SIZE_OFFSET = 4;
+		static final int PAGE_COUNT_OFFSET = 8;
+
+		private final FileChannel channel;
+		private final int pageSize;
+		private final int pagesPerSegment;
+		private final MappedByteBuffer header;
+		private final ArrayList<MappedByteBuffer> segments;
+		private volatile int pageCount;
+
+		/**
+		 * Opens the storage in the given file, creating the file if it does not exist yet.
+		 * @param file the file holding the pages
+		 * @param pageSize the page size in bytes, has to match the page size of an existing file
+		 * @throws IOException
+		 */
+		public MappedBlockStorage(Path file, int pageSize) throws IOException {
+			this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+					StandardOpenOption.WRITE);
+			this.pageSize = pageSize;
+			this.pagesPerSegment = Math.max(1, SEGMENT_BYTES / pageSize);
+			this.segments = new ArrayList<MappedByteBuffer>();
+			boolean isNew = channel.size() == 0;
+			this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, pageSize);
+			if (isNew) {
+				header.putInt(MAGIC_OFFSET, MAGIC);
+				header.putInt(PAGE_SIZE_OFFSET, pageSize);
+				header.putInt(PAGE_COUNT_OFFSET, 0);
+			} else if (header.getInt(MAGIC_OFFSET) != MAGIC) {
+				channel.close();
+				throw new IOException(file + " is not a block storage file");
+			} else if (header.getInt(PAGE_SIZE_OFFSET) != pageSize) {
+				channel.close();
+				throw new IOException(file + " uses pages of " + header.getInt(PAGE_SIZE_OFFSET) + " bytes");
+			}
+			this.pageCount = header.getInt(PAGE_COUNT_OFFSET);
+		}
+
+		public int getPageSize() {
+			return pageSize;
+		}
+
+		public Set<Integer> getAllPageIds() {
+			return new PageIdRange(pageCount);
+		}
+
+		public synchronized int initNewPage() {
+			int id = pageCount;
+			ByteBuffer page = slice(id);
+			// The page may contain garbage if an earlier run crashed before updating the header
+			for (int i = 0; i < pageSize; i += 8) {
+				page.putLong(i, 0L);
+			}
+			pageCount++;
+			header.putInt(PAGE_COUNT_OFFSET, pageCount);
+			return id;
+		}
+
+		public byte[] getPage(int id) throws PageNotFoundException {
+			byte[] page = new byte[pageSize];
+			getPageView(id).get(page);
+			return page;
+		}
+
+		public ByteBuffer getPageView(int id) throws PageNotFoundException {
+			if (id < 0 || id >= pageCount) {
+				throw new PageNotFoundException("page " + id + " not known");
+			}
+			return slice(id);
+		}
+
+		public void storePage(int id, byte[] content) {
+			if (id < 0 || id >= pageCount) {
+				throw new IllegalArgumentException("page " + id + " not known");
+			}
+			slice(id).put(content, 0, pageSize);
+		}
+
+		/**
+		 * A page is always the same slice of its mapped segment, which stays mapped until the storage is closed.
+		 */
+		public boolean hasStableViews() {
+			return true;
+		}
+
+		public int numberOfPagesUsed() {
+			return pageCount;
+		}
+
+		public boolean containsPage(int id) {
+			return id >= 0 && id < pageCount;
+		}
+
+		public long totalBytesAllocated() {
+			return (long) pageCount * pageSize;
+		}
+
+		public synchronized void flush() {
+			for (MappedByteBuffer segment : segments) {
+				if (segment != null) {
+					segment.force();
+				}
+			}
+			header.force();
+		}
+
+		/**
+		 * Faults the page in from the file, so reading it later does not wait for the disk.
+		 */
+		public void prefetch(int id) {
+			if (id >= 0 && id < pageCount) {
+				slice(id).load();
+			}
+		}
+
+		/**
+		 * Flushes all pages and closes the file. The storage must not be used afterwards.
+		 */
+		public void close() throws IOException {
+			flush();
+			channel.close();
+		}
+
+		/**
+		 * Returns the slice of the mapped segment holding the given page.
+		 */
+		private MappedByteBuffer slice(int id) {
+			return segment(id / pagesPerSegment).slice((id % pagesPerSegment) * pageSize, pageSize);
+		}
+
+		/**
+		 * Returns the mapped segment with the given index, mapping it if needed.
+		 */
+		private synchronized MappedByteBuffer segment(int segmentIndex) {
+			while (segments.size() <= segmentIndex) {
+				segments.add(null);
+			}
+			MappedByteBuffer segment = segments.get(segmentIndex);
+			if (segment == null) {
+				long position = pageSize + (long) segmentIndex * pagesPerSegment * pageSize;
+				try {
+					segment = channel.map(FileChannel.MapMode.READ_WRITE, position, (long) pagesPerSegment * pageSize);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				segments.set(segmentIndex, segment);
+			}
+			return segment;
+		}
+
+	}
+
+	/**
+	 * The set of page ids 0, 1, ..., size-1, without materializing the ids.
+	 *
+	 */
+	private static class PageIdRange extends AbstractSet<Integer> {
+
+		private final int size;
+
+		public PageIdRange(int size) {
+			this.size = size;
+		}
+
+		public Iterator<Integer> iterator() {
+			return new Iterator<Integer>() {
+				private int next = 0;
+
+				public boolean hasNext() {
+					return next < size;
+				}
+
+				public Integer next() {
+					if (next >= size) {
+						throw new NoSuchElementException();
+					}
+					return next++;
+				}
+			};
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public boolean contains(Object o) {
+			return o instanceof Integer && (Integer) o >= 0 && (Integer) o < size;
+		}
+
+	}
+
+	/**
+	 * The buffer pool caches pages of a block storage in a fixed number of frames.
+	 * A page has to be pinned while it is used and unpinned afterwards, telling the pool whether
+	 * it was modified. The ByteBuffer of a frame is shared by all users of the page, so it must only
+	 * be accessed with absolute gets and puts. The pool itself is thread-safe; protecting the page content
+	 * against concurrent modification is up to the users (see PageLatches). Only unpinned frames can be evicted; the eviction policy decides which one,
+	 * and modified (dirty) pages are written back to the storage before their frame is reused.
+	 * 
+	 * If the storage has stable views (see BlockStorage.hasStableViews) and no write-ahead log is set,
+	 * a frame is the view of its page itself: loading a page copies nothing, and a change is in the storage
+	 * as soon as it is made, so there is nothing to write back. Only the pin counts and the eviction policy still
+	 * work per frame. With a log, a change must not reach the storage before its log record is durable,
+	 * but a change of a mapped page may be written to the file at any time, so the frames are copies again.
+	 *
+	 */
+	private static class BufferPool {
+
+		private final BlockStorage storage;
+		private final EvictionPolicy policy;
+
+		/**
+		 * The content of each frame, the id of the page held by it (-1 if free), its pin count and dirty flag.
+		 * The content is the view of the page in zero-copy mode, a buffer of the pool otherwise.
+		 */
+		private final ByteBuffer[] frames;
+		private final int[] framePage;
+		private final int[] pinCounts;
+		private final boolean[] dirty;
+
+		/**
+		 * True while the frame is written back outside the monitor. The frame stays pinned for that time,
+		 * so it is not evicted, and pins of its page wait until the write is done.
+		 */
+		private final boolean[] writing;
+
+		/**
+		 * Maps the ids of the resident pages to their frame.
+		 */
+		private final Map<Integer, Integer> pageTable;
+
+		/**
+		 * True while the frames are the views of the storage pages instead of copies.
+		 */
+		private boolean zeroCopy;
+
+		/**
+		 * The number of frames that never held a page.
+		 */
+		private int unusedFrames;
+
+		/**
+		 * The log that has to be durable up to the page LSN before a page is written back, null if there is none.
+		 */
+		private WriteAheadLog log;
+
+		private long hits;
+		private long misses;
+		private long evictions;
+		private long writeBacks;
+		private long prefetches;
+		private final LatencyHistogram readLatency = new LatencyHistogram();
+		private final LatencyHistogram writeLatency = new LatencyHistogram();
+
+		/**
+		 * Creates a buffer pool.
+		 * @param storage the storage the pages are read from and written to
+		 * @param numFrames the number of pages the pool can hold at most
+		 * @param policy the eviction policy, created for numFrames frames
+		 */
+		public BufferPool(BlockStorage storage, int numFrames, EvictionPolicy policy) {
+			this.storage = storage;
+			this.policy = policy;
+			this.frames = new ByteBuffer[numFrames];
+			this.zeroCopy = storage.hasStableViews();
+			if (!zeroCopy) {
+				for (int frame = 0; frame < numFrames; frame++) {
+					frames[frame] = ByteBuffer.allocate(storage.getPageSize());
+				}
+			}
+			this.framePage = new int[numFrames];
+			this.pinCounts = new int[numFrames];
+			this.dirty = new boolean[numFrames];
+			this.writing = new boolean[numFrames];
+			this.pageTable = new HashMap<Integer, Integer>();
+			Arrays.fill(framePage, -1);
+			this.unusedFrames = numFrames;
+		}
+
+		public BlockStorage getStorage() {
+			return storage;
+		}
+
+		/**
+		 * Makes the pool follow the write-ahead rule: before a dirty page is written back, the log is flushed
+		 * up to the LSN stored at PAGE_LSN_OFFSET of the page, so the storage never holds a change the log lost.
+		 * Ends the zero-copy mode: the resident pages are copied into frames of the pool.
+		 * @param log the write-ahead log of the pages
+		 * @throws IllegalStateException if a page is pinned while the frames are the views of the pages
+		 */
+		public synchronized void setWriteAheadLog(WriteAheadLog log) {
+			if (log != null && zeroCopy) {
+				for (int frame = 0; frame < frames.length; frame++) {
+					if (pinCounts[frame] > 0) {
+						throw new IllegalStateException("page " + framePage[frame] + " is pinned");
+					}
+				}
+				for (int frame = 0; frame < frames.length; frame++) {
+					ByteBuffer copy = ByteBuffer.allocate(storage.getPageSize());
+					if (framePage[frame] >= 0) {
+						copy.put(0, frames[frame], 0, copy.capacity());
+					}
+					frames[frame] = copy;
+				}
+				zeroCopy = false;
+			}
+			this.log = log;
+		}
+
+		/**
+		 * Pins the given page, reading it from the storage if it is not resident.
+		 * The returned buffer stays valid until the page is unpinned.
+		 * @param pageId the id of the page
+		 * @return the frame holding the page content
+		 * @throws PageNotFoundException if the storage does not know the page
+		 */
+		public ByteBuffer pin(int pageId) throws PageNotFoundException {
+			return frames[acquire(pageId, true)];
+		}
+
+		/**
+		 * Reads the given page into a frame without pinning it, so a later pin is a hit. Used for read-ahead:
+		 * the storage reads the page before the pool is locked, and a page that does not exist or finds
+		 * no unpinned frame is just skipped.
+		 * @param pageId the id of the page
+		 */
+		public void prefetch(int pageId) {
+			storage.prefetch(pageId);
+			try {
+				acquire(pageId, false);
+			} catch (PageNotFoundException | IllegalStateException e) {
+				// nothing to read ahead
+			}
+		}
+
+		/**
+		 * Unpins a page that was pinned before.
+		 * @param pageId the id of the page
+		 * @param modified true if the page content was changed while it was pinned
+		 */
+		public synchronized void unpin(int pageId, boolean modified) {
+			Integer frame = pageTable.get(pageId);
+			if (frame == null || pinCounts[frame] == 0) {
+				throw new IllegalStateException("page " + pageId + " is not pinned");
+			}
+			pinCounts[frame]--;
+			// a view already is the stored page
+			dirty[frame] |= modified && !zeroCopy;
+		}
+
+		/**
+		 * Writes all dirty pages back to the storage. The pages stay resident.
+		 */
+		public void flushAll() {
+			for (int frame = 0; frame < frames.length; frame++) {
+				synchronized (this) {
+					awaitWriteBack(frame);
+					if (framePage[frame] < 0 || !dirty[frame]) {
+						continue;
+					}
+					startWriteBack(frame);
+				}
+				writeBack(frame);
+			}
+		}
+
+		public int getNumFrames() {
+			return frames.length;
+		}
+
+		public synchronized long getHits() {
+			return hits;
+		}
+
+		public synchronized long getMisses() {
+			return misses;
+		}
+
+		public synchronized long getEvictions() {
+			return evictions;
+		}
+
+		public synchronized long getWriteBacks() {
+			return writeBacks;
+		}
+
+		public synchronized long getPrefetches() {
+			return prefetches;
+		}
+
+		/**
+		 * Returns the latencies of reading a page from the storage into a frame.
+		 */
+		public LatencyHistogram getReadLatency() {
+			return readLatency;
+		}
+
+		/**
+		 * Returns the latencies of writing a page back to the storage, including waiting for the log.
+		 */
+		public LatencyHistogram getWriteLatency() {
+			return writeLatency;
+		}
+
+		/**
+		 * Makes the given page resident, reading it into a frame if needed.
+		 * If the frame to evict holds a dirty page, that page is written back first, outside the monitor,
+		 * so waiting for the log fsync and the storage write does not hold up pins of other pages.
+		 * @param pin true to pin the page, false to read it ahead: a resident page is left alone then,
+		 *        and a loaded one only counts as an access, so the policy keeps it until the reader pins it
+		 * @return the frame holding the page
+		 */
+		private int acquire(int pageId, boolean pin) throws PageNotFoundException {
+			while (true) {
+				int victim = -1;
+				synchronized (this) {
+					Integer frame = pageTable.get(pageId);
+					if (frame != null) {
+						if (writing[frame]) {
+							awaitWriteBack(frame);
+							continue;
+						}
+						if (!pin) {
+							return frame;
+						}
+						hits++;
+					} else {
+						ByteBuffer page = storage.getPageView(pageId);
+						victim = claimFrame();
+						if (framePage[victim] >= 0) {
+							startWriteBack(victim);
+						} else {
+							frame = load(pageId, page, victim);
+							if (pin) {
+								misses++;
+							} else {
+								prefetches++;
+							}
+						}
+					}
+					if (frame != null) {
+						if (pin) {
+							pinCounts[frame]++;
+						}
+						policy.pageAccessed(frame);
+						return frame;
+					}
+				}
+				writeBack(victim);
+			}
+		}
+
+		/**
+		 * Puts the given page into a frame returned by claimFrame: the view itself in zero-copy mode, a copy otherwise.
+		 */
+		private int load(int pageId, ByteBuffer page, int frame) {
+			long startNanos = System.nanoTime();
+			PageReadEvent event = new PageReadEvent();
+			event.begin();
+			if (zeroCopy) {
+				frames[frame] = page;
+			} else {
+				frames[frame].put(0, page, 0, page.capacity());
+			}
+			event.pageId = pageId;
+			event.commit();
+			readLatency.record(System.nanoTime() - startNanos);
+			framePage[frame] = pageId;
+			dirty[frame] = false;
+			pageTable.put(pageId, frame);
+			policy.pageLoaded(frame);
+			return frame;
+		}
+
+		/**
+		 * Returns a frame that can take a new page, evicting a page if no frame is free.
+		 * A dirty victim is not evicted: it still holds its page (framePage is not -1) and has to be
+		 * written back before it can be claimed again.
+		 */
+		private int claimFrame() {
+			if (unusedFrames > 0) {
+				return frames.length - unusedFrames--;
+			}
+			int victim = policy.chooseVictim(pinCounts);
+			if (victim < 0) {
+				throw new IllegalStateException("all " + frames.length + " frames of the buffer pool are pinned");
+			}
+			if (!dirty[victim]) {
+				pageTable.remove(framePage[victim]);
+				framePage[victim] = -1;
+				evictions++;
+			}
+			return victim;
+		}
+
+		/**
+		 * Pins the given frame for writeBack, which has to be called right after the monitor is released.
+		 */
+		private void startWriteBack(int frame) {
+			writing[frame] = true;
+			pinCounts[frame]++;
+		}
+
+		/**
+		 * Waits until the given frame is not written back any more. Has to be called while holding the monitor.
+		 */
+		private void awaitWriteBack(int frame) {
+			boolean interrupted = false;
+			while (writing[frame]) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		/**
+		 * Writes a frame marked by startWriteBack back to the storage, after the log is durable up to its
+		 * page LSN. Must not hold the monitor: the frame is pinned, and nobody else pins it until it is done.
+		 */
+		private void writeBack(int frame) {
+			int pageId = framePage[frame];
+			boolean written = false;
+			long startNanos = System.nanoTime();
+			PageWriteEvent event = new PageWriteEvent();
+			event.begin();
+			try {
+				if (log != null) {
+					log.commit(frames[frame].getLong(PAGE_LSN_OFFSET));
+				}
+				storage.getPageView(pageId).put(0, frames[frame], 0, frames[frame].capacity());
+				event.pageId = pageId;
+				event.commit();
+				writeLatency.record(System.nanoTime() - startNanos);
+				written = true;
+			} catch (PageNotFoundException e) {
+				throw new IllegalStateException(e);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			} finally {
+				synchronized (this) {
+					if (written) {
+						dirty[frame] = false;
+						writeBacks++;
+					}
+					pinCounts[frame]--;
+					writing[frame] = false;
+					notifyAll();
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * Decides which frame of a buffer pool is evicted next.
+	 * Frames are identified by their index; a frame with a pin count above 0 must never be chosen.
+	 *
+	 */
+	private interface EvictionPolicy {
+
+		/**
+		 * Called when a new page was read into the given frame.
+		 */
+		void pageLoaded(int frame);
+
+		/**
+		 * Called whenever the page in the given frame is pinned.
+		 */
+		void pageAccessed(int frame);
+
+		/**
+		 * Chooses the frame to evict.
+		 * @param pinCounts the pin count of every frame
+		 * @return the index of an unpinned frame, -1 if all frames are pinned
+		 */
+		int chooseVictim(int[] pinCounts);
+
+	}
+
+	/**
+	 * The CLOCK (second chance) policy: every access sets the reference bit of a frame.
+	 * The clock hand sweeps over the frames, clears set reference bits and evicts the first
+	 * unpinned frame whose bit is already cleared.
+	 *
+	 */
+	private static class ClockPolicy implements EvictionPolicy {
+
+		private final boolean[] referenced;
+		private int hand;
+
+		public ClockPolicy(int numFrames) {
+			referenced = new boolean[numFrames];
+		}
+
+		public void pageLoaded(int frame) {
+		}
+
+		public void pageAccessed(int frame) {
+			referenced[frame] = true;
+		}
+
+		public int chooseVictim(int[] pinCounts) {
+			// after two full rounds every unpinned frame had its bit cleared once
+			for (int i = 0; i < 2 * referenced.length; i++) {
+				int frame = hand;
+				hand = (hand + 1) % referenced.length;
+				if (pinCounts[frame] > 0) {
+					continue;
+				}
+				if (referenced[frame]) {
+					referenced[frame] = false;
+				} else {
+					return frame;
+				}
+			}
+			return -1;
+		}
+
+	}
+
+	/**
+	 * The LRU-K policy: evicts the unpinned frame whose K-th most recent access lies furthest in the past.
+	 * Frames with fewer than K accesses count as infinitely old and are evicted first, in LRU order.
+	 * The access history of a frame starts anew when a page is read into it.
+	 *
+	 */
+	private static class LruKPolicy implements EvictionPolicy {
+
+		private final int k;
+
+		/**
+		 * The last K access times of every frame, as a ring buffer per frame, and the number of accesses recorded.
+		 */
+		private final long[][] history;
+		private final int[] accesses;
+		private long clock;
+
+		public LruKPolicy(int numFrames, int k) {
+			this.k = k;
+			this.history = new long[numFrames][k];
+			this.accesses = new int[numFrames];
+		}
+
+		public void pageLoaded(int frame) {
+			accesses[frame] = 0;
+		}
+
+		public void pageAccessed(int frame) {
+			history[frame][accesses[frame] % k] = ++clock;
+			accesses[frame]++;
+		}
+
+		public int chooseVictim(int[] pinCounts) {
+			int victim = -1;
+			boolean victimHasK = true;
+			long victimTime = Long.MAX_VALUE;
+			for (int frame = 0; frame < history.length; frame++) {
+				if (pinCounts[frame] > 0) {
+					continue;
+				}
+				boolean hasK = accesses[frame] >= k;
+				// the K-th most recent access, or the most recent one if there are fewer than K
+				long time = hasK ? history[frame][accesses[frame] % k] : history[frame][(accesses[frame] - 1) % k];
+				if ((victimHasK && !hasK) || (victimHasK == hasK && time < victimTime)) {
+					victim = frame;
+					victimHasK = hasK;
+					victimTime = time;
+				}
+			}
+			return victim;
+		}
+
+	}
+
+	/**
+	 * The write-ahead log of the slotted pages. Every change of a slot is appended as a physiological record:
+	 * it names the page and the slot, but describes the change logically (the new bytes of the tuple in the slot,
+	 * or that the slot was freed), so it can be redone no matter where compaction moved the tuples of the page.
+	 * 
+	 * Appending only copies the record into a memory buffer. Records become durable by group commit: the first
+	 * thread that waits for its records becomes the leader and writes and fsyncs everything appended so far,
+	 * all other threads wait for the leader. Records appended while the leader is busy go to a second buffer
+	 * and are written by the next leader, so concurrent inserters share one fsync instead of paying one each.
+	 * 
+	 * The LSN of a record is the log position right after it, counted since the log was created. The file header
+	 * holds the LSN the file starts at, so LSNs keep growing when the log is truncated after a checkpoint.
+	 * A record is [length, crc, lsn, type, page, slot, slot flags, payload]; a record torn by a crash fails
+	 * its CRC and is cut off, together with everything behind it, when the log is opened.
+	 *
+	 */
+	private static class WriteAheadLog implements Closeable {
+
+		/**
+		 * The record types
+		 */
+		static final byte INSERT = 1;
+		static final byte UPDATE = 2;
+		static final byte DELETE = 3;
+
+		/**
+		 * Marks a file written by WriteAheadLog
+		 */
+		static final int MAGIC = 0x57414C31;
+
+		/**
+		 * The file header holds the magic number and (at BASE_LSN_OFFSET) the LSN the file starts at
+		 */
+		static final int FILE_HEADER_SIZE = 16;
+		static final int BASE_LSN_OFFSET = 8;
+
+		/**
+		 * Offsets of the fields of a record, the payload follows the record header
+		 */
+		static final int LENGTH_OFFSET = 0;
+		static final int CRC_OFFSET = 4;
+		static final int LSN_OFFSET = 8;
+		static final int TYPE_OFFSET = 16;
+		static final int PAGE_OFFSET = 17;
+		static final int SLOT_OFFSET = 21;
+		static final int FLAGS_OFFSET = 25;
+		static final int RECORD_HEADER_SIZE = 29;
+
+		static final int INITIAL_BUFFER_BYTES = 64 * 1024;
+
+		/**
+		 * Receives the records of the log during replay.
+		 */
+		interface RedoHandler {
+			void redo(byte type, long lsn, int pageId, int slot, int slotFlags, ByteBuffer record, int offset, int length);
+		}
+
+		private final FileChannel channel;
+		private final ReentrantLock lock;
+		private final Condition flushed;
+		private final CRC32 crc;
+
+		/**
+		 * New records are appended to appendBuffer while the leader writes flushBuffer
+		 */
+		private ByteBuffer appendBuffer;
+		private ByteBuffer flushBuffer;
+		private long baseLsn;
+		private long endLsn;
+		private long durableLsn;
+		private boolean flushing;
+		private IOException failure;
+
+		private long records;
+		private long forces;
+
+		/**
+		 * Opens the log in the given file, creating the file if it does not exist yet.
+		 * A torn record at the end of an existing log is removed.
+		 * @param file the file holding the log
+		 * @throws IOException
+		 */
+		public WriteAheadLog(Path file) throws IOException {
+			this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+					StandardOpenOption.WRITE);
+			this.lock = new ReentrantLock();
+			this.flushed = lock.newCondition();
+			this.crc = new CRC32();
+			this.appendBuffer = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+			this.flushBuffer = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+			if (channel.size() < FILE_HEADER_SIZE) {
+				writeHeader(0);
+			} else {
+				ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+				readFully(header, 0);
+				if (header.getInt(0) != MAGIC) {
+					channel.close();
+					throw new IOException(file + " is not a write-ahead log");
+				}
+				baseLsn = header.getLong(BASE_LSN_OFFSET);
+			}
+			endLsn = scan(null);
+			durableLsn = endLsn;
+			channel.truncate(FILE_HEADER_SIZE + endLsn - baseLsn);
+		}
+
+		/**
+		 * Hands all records of the log to the handler, in the order they were appended.
+		 * Must be called before any record is appended.
+		 * @param handler the handler redoing the records
+		 * @throws IOException
+		 */
+		public void replay(RedoHandler handler) throws IOException {
+			lock.lock();
+			try {
+				scan(handler);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Appends a record to the log buffer. The record is not durable before commit is called with its LSN.
+		 * @param type INSERT, UPDATE or DELETE
+		 * @param pageId the page that was changed
+		 * @param slot the slot that was changed
+		 * @param slotFlags the SLOT_* flags of the slot
+		 * @param src the buffer holding the new bytes of the slot (the payload), only read with absolute gets
+		 * @param offset the offset of the payload in src
+		 * @param length the length of the payload, 0 for DELETE
+		 * @return the LSN of the record
+		 */
+		public long append(byte type, int pageId, int slot, int slotFlags, ByteBuffer src, int offset, int length) {
+			int size = RECORD_HEADER_SIZE + length;
+			lock.lock();
+			try {
+				if (appendBuffer.remaining() < size) {
+					ByteBuffer larger = ByteBuffer.allocate(Math.max(2 * appendBuffer.capacity(), appendBuffer.position() + size));
+					larger.put(appendBuffer.flip());
+					appendBuffer = larger;
+				}
+				int start = appendBuffer.position();
+				long lsn = endLsn + size;
+				appendBuffer.putInt(size).putInt(0).putLong(lsn).put(type).putInt(pageId).putInt(slot).putInt(slotFlags);
+				appendBuffer.put(start + RECORD_HEADER_SIZE, src, offset, length);
+				appendBuffer.position(start + size);
+				crc.reset();
+				crc.update(appendBuffer.array(), start + LSN_OFFSET, size - LSN_OFFSET);
+				appendBuffer.putInt(start + CRC_OFFSET, (int) crc.getValue());
+				endLsn = lsn;
+				records++;
+				return lsn;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Waits until all records up to the given LSN are durable, writing and fsyncing them if no other
+		 * thread is doing so already.
+		 * @param lsn the LSN of the last record that has to be durable
+		 * @throws IOException if writing the log failed, now or before
+		 */
+		public void commit(long lsn) throws IOException {
+			lock.lock();
+			try {
+				while (durableLsn < lsn) {
+					if (failure != null) {
+						throw new IOException("write-ahead log failed", failure);
+					}
+					if (flushing) {
+						flushed.awaitUninterruptibly();
+						continue;
+					}
+					// Become the leader and write everything appended so far
+					flushing = true;
+					ByteBuffer batch = appendBuffer;
+					appendBuffer = flushBuffer;
+					flushBuffer = batch;
+					long batchEnd = endLsn;
+					long position = FILE_HEADER_SIZE + durableLsn - baseLsn;
+					lock.unlock();
+					try {
+						batch.flip();
+						while (batch.hasRemaining()) {
+							position += channel.write(batch, position);
+						}
+						channel.force(false);
+					} catch (IOException e) {
+						failure = e;
+					} finally {
+						batch.clear();
+						lock.lock();
+						flushing = false;
+						if (failure == null) {
+							durableLsn = batchEnd;
+							forces++;
+						}
+						flushed.signalAll();
+					}
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Empties the log. All pages have to be flushed to the storage before, and no records
+		 * must be appended concurrently. LSNs continue after the last record of the log.
+		 * @throws IOException
+		 */
+		public void truncate() throws IOException {
+			commit(getEndLsn());
+			lock.lock();
+			try {
+				// A crash in between leaves the records behind the new base LSN, where they no longer match it
+				baseLsn = endLsn;
+				writeHeader(baseLsn);
+				channel.truncate(FILE_HEADER_SIZE);
+				channel.force(true);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Returns the LSN of the last appended record.
+		 */
+		public long getEndLsn() {
+			lock.lock();
+			try {
+				return endLsn;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Returns the LSN up to which the log is durable.
+		 */
+		public long getDurableLsn() {
+			lock.lock();
+			try {
+				return durableLsn;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Returns the number of records appended since the log was opened.
+		 */
+		public long getRecordCount() {
+			lock.lock();
+			try {
+				return records;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Returns the number of fsyncs since the log was opened; with group commit, usually far below the record count.
+		 */
+		public long getForceCount() {
+			lock.lock();
+			try {
+				return forces;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Makes all records durable and closes the file. The log must not be used afterwards.
+		 */
+		public void close() throws IOException {
+			commit(getEndLsn());
+			channel.close();
+		}
+
+		/**
+		 * Reads the records of the file up to the first one that is incomplete or broken.
+		 * @param handler receives the records, may be null
+		 * @return the LSN of the last intact record
+		 */
+		private long scan(RedoHandler handler) throws IOException {
+			long size = channel.size();
+			long position = FILE_HEADER_SIZE;
+			long lsn = baseLsn;
+			ByteBuffer record = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+			while (position + RECORD_HEADER_SIZE <= size) {
+				record.clear().limit(INT_SIZE);
+				readFully(record, position);
+				int length = record.getInt(LENGTH_OFFSET);
+				if (length < RECORD_HEADER_SIZE || position + length > size) {
+					break;
+				}
+				if (record.capacity() < length) {
+					record = ByteBuffer.allocate(length);
+				}
+				record.clear().limit(length);
+				readFully(record, position);
+				crc.reset();
+				crc.update(record.array(), LSN_OFFSET, length - LSN_OFFSET);
+				if ((int) crc.getValue() != record.getInt(CRC_OFFSET) || record.getLong(LSN_OFFSET) != lsn + length) {
+					break;
+				}
+				lsn += length;
+				position += length;
+				if (handler != null) {
+					handler.redo(record.get(TYPE_OFFSET), lsn, record.getInt(PAGE_OFFSET), record.getInt(SLOT_OFFSET),
+							record.getInt(FLAGS_OFFSET), record, RECORD_HEADER_SIZE, length - RECORD_HEADER_SIZE);
+				}
+			}
+			return lsn;
+		}
+
+		private void writeHeader(long base) throws IOException {
+			ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+			header.putInt(0, MAGIC);
+			header.putLong(BASE_LSN_OFFSET, base);
+			while (header.hasRemaining()) {
+				channel.write(header, header.position());
+			}
+			channel.force(true);
+		}
+
+		private void readFully(ByteBuffer buffer, long position) throws IOException {
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, position + buffer.position()) < 0) {
+					throw new EOFException("unexpected end of the write-ahead log");
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * The free-space map remembers for every page the number of unused bytes, so that a page with
+	 * enough room for a new tuple can be found without reading any page.
+	 * Pages are grouped into size classes of SIZE_CLASS_BYTES bytes each.
+	 * 
+	 * The map is split into partitions (page id modulo the number of partitions), each with its own lock.
+	 * Every thread starts its search in a different partition, so concurrent inserts spread over different
+	 * pages instead of all competing for the same "best" page.
+	 *
+	 */
+	private static class FreeSpaceMap {
+
+		/**
+		 * Width of one size class in bytes
+		 */
+		static final int SIZE_CLASS_BYTES = 8;
+
+		private final Partition[] partitions;
+
+		/**
+		 * Creates an empty free-space map.
+		 * @param pageSize the page size in bytes
+		 * @param numPartitions the number of partitions, e.g. the number of inserting threads
+		 */
+		public FreeSpaceMap(int pageSize, int numPartitions) {
+			partitions = new Partition[numPartitions];
+			for (int i = 0; i < numPartitions; i++) {
+				partitions[i] = new Partition(pageSize);
+			}
+		}
+
+		/**
+		 * Records the current free space of a page, moving it to the matching size class.
+		 * @param pageId the id of the page
+		 * @param bytes the number of unused bytes in the page
+		 */
+		public void update(int pageId, int bytes) {
+			partitions[pageId % partitions.length].update(pageId, pageId / partitions.length, bytes);
+		}
+
+		/**
+		 * Returns a page with at least the given number of unused bytes, searching the partition
+		 * of the calling thread first.
+		 * @param bytes the number of bytes needed
+		 * @return the id of the page, -1 if no known page has enough room
+		 */
+		public int findPage(int bytes) {
+			int first = (int) (Thread.currentThread().getId() % partitions.length);
+			for (int i = 0; i < partitions.length; i++) {
+				int pageId = partitions[(first + i) % partitions.length].findPage(bytes);
+				if (pageId >= 0) {
+					return pageId;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * Returns the number of unused bytes recorded for the given page.
+		 * @param pageId the id of the page
+		 * @return the number of unused bytes
+		 */
+		public int getFreeBytes(int pageId) {
+			return partitions[pageId % partitions.length].getFreeBytes(pageId / partitions.length);
+		}
+
+		/**
+		 * The free space of the pages of one partition.
+		 */
+		private static class Partition {
+
+			/**
+			 * Unused bytes per page, indexed by the page's index within the partition.
+			 */
+			private int[] freeBytes;
+
+			/**
+			 * The size class each page is currently registered in, -1 if it is in none.
+			 */
+			private int[] sizeClassOf;
+
+			/**
+			 * The ids of the pages in each size class, and the set of size classes that are not empty.
+			 */
+			private final ArrayList<TreeSet<Integer>> sizeClasses;
+			private final BitSet nonEmptyClasses;
+
+			public Partition(int pageSize) {
+				freeBytes = new int[16];
+				sizeClassOf = new int[16];
+				Arrays.fill(sizeClassOf, -1);
+				sizeClasses = new ArrayList<TreeSet<Integer>>();
+				for (int i = 0; i <= pageSize / SIZE_CLASS_BYTES; i++) {
+					sizeClasses.add(new TreeSet<Integer>());
+				}
+				nonEmptyClasses = new BitSet(sizeClasses.size());
+			}
+
+			public synchronized void update(int pageId, int index, int bytes) {
+				ensureCapacity(index);
+				int oldClass = sizeClassOf[index];
+				int newClass = bytes / SIZE_CLASS_BYTES;
+				freeBytes[index] = bytes;
+				if (oldClass == newClass) {
+					return;
+				}
+				if (oldClass >= 0) {
+					TreeSet<Integer> pages = sizeClasses.get(oldClass);
+					pages.remove(pageId);
+					if (pages.isEmpty()) {
+						nonEmptyClasses.clear(oldClass);
+					}
+				}
+				sizeClasses.get(newClass).add(pageId);
+				nonEmptyClasses.set(newClass);
+				sizeClassOf[index] = newClass;
+			}
+
+			/**
+			 * Takes the page from the smallest size class that is guaranteed to be large enough,
+			 * preferring the lowest page id within that class.
+			 */
+			public synchronized int findPage(int bytes) {
+				int sizeClass = nonEmptyClasses.nextSetBit((bytes + SIZE_CLASS_BYTES - 1) / SIZE_CLASS_BYTES);
+				if (sizeClass < 0) {
+					return -1;
+				}
+				return sizeClasses.get(sizeClass).first();
+			}
+
+			public synchronized int getFreeBytes(int index) {
+				return index < freeBytes.length ? freeBytes[index] : 0;
+			}
+
+			private void ensureCapacity(int index) {
+				if (index < freeBytes.length) {
+					return;
+				}
+				int newLength = Math.max(index + 1, freeBytes.length * 2);
+				freeBytes = Arrays.copyOf(freeBytes, newLength);
+				int oldLength = sizeClassOf.length;
+				sizeClassOf = Arrays.copyOf(sizeClassOf, newLength);
+				Arrays.fill(sizeClassOf, oldLength, newLength, -1);
+			}
+
+		}
+
+	}
+
+	/**
+	 * Space statistics of the pages, kept up to date with every change instead of being recomputed:
+	 * whoever changes a page reports its used and fragmented bytes (see update) while the page is still latched,
+	 * and the totals and the fill histogram are adjusted by the difference to the last report of the page.
+	 * All getters are thus O(1) and can be polled while the table is in use.
+	 * The per-page values are kept in chunks indexed by page id, like the latches.
+	 *
+	 */
+	private static class SpaceStatistics {
+
+		/**
+		 * The number of buckets of the fill histogram, each covering 1/FILL_BUCKETS of the page size
+		 */
+		static final int FILL_BUCKETS = 10;
+
+		private static final int CHUNK_BITS = 10;
+		private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+		private final int pageSize;
+
+		/**
+		 * Per page: 1 + the used bytes (0 if the page was never reported) and the fragmented bytes
+		 */
+		private volatile int[][] chunks = new int[0][];
+
+		private final LongAdder pages = new LongAdder();
+		private final LongAdder usedBytes = new LongAdder();
+		private final LongAdder fragmentedBytes = new LongAdder();
+		private final LongAdder[] fillHistogram = new LongAdder[FILL_BUCKETS];
+
+		/**
+		 * Creates statistics without any pages.
+		 * @param pageSize the page size in bytes
+		 */
+		public SpaceStatistics(int pageSize) {
+			this.pageSize = pageSize;
+			for (int bucket = 0; bucket < FILL_BUCKETS; bucket++) {
+				fillHistogram[bucket] = new LongAdder();
+			}
+		}
+
+		/**
+		 * Records the current state of a page. Must be called while the page is latched, so the reports
+		 * of one page do not interleave.
+		 * @param pageId the id of the page
+		 * @param used the bytes of the page that are in use, including its header and slots
+		 * @param fragmented the unused bytes in holes between the tuples of the page
+		 */
+		public void update(int pageId, int used, int fragmented) {
+			int[] chunk = chunk(pageId >>> CHUNK_BITS);
+			int index = (pageId & (CHUNK_SIZE - 1)) * 2;
+			int oldUsed = chunk[index] - 1;
+			if (oldUsed < 0) {
+				pages.increment();
+				oldUsed = 0;
+			} else {
+				fillHistogram[bucket(oldUsed)].decrement();
+			}
+			fillHistogram[bucket(used)].increment();
+			usedBytes.add(used - oldUsed);
+			fragmentedBytes.add(fragmented - chunk[index + 1]);
+			chunk[index] = used + 1;
+			chunk[index + 1] = fragmented;
+		}
+
+		/**
+		 * Returns the number of pages reported.
+		 */
+		public long getPages() {
+			return pages.sum();
+		}
+
+		public long getAllocatedBytes() {
+			return pages.sum() * pageSize;
+		}
+
+		public long getUsedBytes() {
+			return usedBytes.sum();
+		}
+
+		/**
+		 * Returns the used bytes of the given page, 0 if the page was never reported.
+		 */
+		public int getUsedBytes(int pageId) {
+			int[][] current = chunks;
+			int chunk = pageId >>> CHUNK_BITS;
+			return chunk < current.length ? Math.max(0, current[chunk][(pageId & (CHUNK_SIZE - 1)) * 2] - 1) : 0;
+		}
+
+		/**
+		 * Returns the fraction (between 0 and 1) of the allocated bytes that are used.
+		 */
+		public double getUtilization() {
+			long allocated = getAllocatedBytes();
+			return allocated == 0 ? 0 : (double) getUsedBytes() / allocated;
+		}
+
+		public long getFragmentedBytes() {
+			return fragmentedBytes.sum();
+		}
+
+		/**
+		 * Returns the fraction (between 0 and 1) of the unused bytes that are in holes between tuples,
+		 * i.e. only usable for new tuples after compacting their page.
+		 */
+		public double getFragmentation() {
+			long unused = getAllocatedBytes() - getUsedBytes();
+			return unused == 0 ? 0 : (double) getFragmentedBytes() / unused;
+		}
+
+		/**
+		 * Returns the number of pages per fill bucket: bucket i counts the pages whose used bytes
+		 * are at least i/FILL_BUCKETS of the page size, and less than (i+1)/FILL_BUCKETS (the last bucket includes full pages).
+		 */
+		public long[] getFillHistogram() {
+			long[] histogram = new long[FILL_BUCKETS];
+			for (int bucket = 0; bucket < FILL_BUCKETS; bucket++) {
+				histogram[bucket] = fillHistogram[bucket].sum();
+			}
+			return histogram;
+		}
+
+		public String toString() {
+			return String.format("pages=%d utilization=%.4f fragmentation=%.4f fill=%s", getPages(), getUtilization(),
+					getFragmentation(), Arrays.toString(getFillHistogram()));
+		}
+
+		private int bucket(int used) {
+			return Math.min(FILL_BUCKETS - 1, (int) ((long) used * FILL_BUCKETS / pageSize));
+		}
+
+		private int[] chunk(int chunk) {
+			int[][] current = chunks;
+			if (chunk >= current.length) {
+				current = grow(chunk);
+			}
+			return current[chunk];
+		}
+
+		private synchronized int[][] grow(int chunk) {
+			int[][] current = chunks;
+			if (chunk < current.length) {
+				return current;
+			}
+			int[][] grown = Arrays.copyOf(current, Math.max(chunk + 1, current.length * 2));
+			for (int i = current.length; i < grown.length; i++) {
+				grown[i] = new int[CHUNK_SIZE * 2];
+			}
+			chunks = grown;
+			return grown;
+		}
+
+	}
+
+	/**
+	 * Per-page zone maps: for each page the minimum and maximum o_orderdate (as epoch day), o_totalprice and
+	 * o_orderkey of the orders a scan of the page visits. A scan skips a page whose ranges cannot match its
+	 * predicate (see OrderPredicate.mayMatch) without latching or reading it.
+	 * 
+	 * The ranges only ever widen: stores and updates add the new values while the page is latched, deletes
+	 * leave the ranges as they are, so they may be wider than needed but never miss an order. A moved order is
+	 * added to its home page as well, since the scan of the home page visits it. Dates that are not stored as
+	 * epoch days widen the date range to everything. A page without orders has empty ranges.
+	 * The values are kept in chunks indexed by page id, like the latches.
+	 *
+	 */
+	private static class ZoneMap {
+
+		private static final int CHUNK_BITS = 10;
+		private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+		/**
+		 * Per page: minimum and maximum day, minimum and maximum key; minimum and maximum price
+		 */
+		private static final int INTS_PER_PAGE = 4;
+		private static final int DOUBLES_PER_PAGE = 2;
+
+		private volatile int[][] intChunks = new int[0][];
+		private volatile double[][] doubleChunks = new double[0][];
+
+		/**
+		 * Adds the encoded order at the given offset to the ranges of the page. The page has to be latched.
+		 */
+		public void add(int pageId, ByteBuffer buffer, int offset) {
+			add(pageId, Order.readOrderDay(buffer, offset), Order.readTotalPrice(buffer, offset), Order.readOrderKey(buffer, offset));
+		}
+
+		/**
+		 * Adds the order to the ranges of the page. The page has to be latched.
+		 */
+		public void add(int pageId, Order o) {
+			add(pageId, Order.parseDate(o.o_orderdate), o.o_totalprice, o.o_orderkey);
+		}
+
+		/**
+		 * Returns true if the page may hold an order with an o_orderdate between the given days (inclusive).
+		 */
+		public boolean mayContainOrderDays(int pageId, int fromDay, int toDay) {
+			int[] chunk = intChunk(pageId);
+			int index = (pageId & (CHUNK_SIZE - 1)) * INTS_PER_PAGE;
+			return chunk != null && chunk[index] <= toDay && chunk[index + 1] >= fromDay;
+		}
+
+		/**
+		 * Returns true if the page may hold an order with an o_totalprice between the given prices (inclusive).
+		 */
+		public boolean mayContainTotalPrices(int pageId, double min, double max) {
+			double[] chunk = doubleChunk(pageId);
+			int index = (pageId & (CHUNK_SIZE - 1)) * DOUBLES_PER_PAGE;
+			return chunk != null && chunk[index] <= max && chunk[index + 1] >= min;
+		}
+
+		/**
+		 * Returns true if the page may hold an order with an o_orderkey between the given keys (inclusive).
+		 */
+		public boolean mayContainOrderKeys(int pageId, int min, int max) {
+			int[] chunk = intChunk(pageId);
+			int index = (pageId & (CHUNK_SIZE - 1)) * INTS_PER_PAGE;
+			return chunk != null && chunk[index + 2] <= max && chunk[index + 3] >= min;
+		}
+
+		private void add(int pageId, int day, double price, int key) {
+			int chunk = pageId >>> CHUNK_BITS;
+			if (chunk >= intChunks.length) {
+				grow(chunk);
+			}
+			int[] ints = intChunks[chunk];
+			double[] doubles = doubleChunks[chunk];
+			int index = (pageId & (CHUNK_SIZE - 1)) * INTS_PER_PAGE;
+			if (day == Order.NO_VALUE) {
+				ints[index] = Integer.MIN_VALUE;
+				ints[index + 1] = Integer.MAX_VALUE;
+			} else {
+				ints[index] = Math.min(ints[index], day);
+				ints[index + 1] = Math.max(ints[index + 1], day);
+			}
+			ints[index + 2] = Math.min(ints[index + 2], key);
+			ints[index + 3] = Math.max(ints[index + 3], key);
+			index = (pageId & (CHUNK_SIZE - 1)) * DOUBLES_PER_PAGE;
+			doubles[index] = Math.min(doubles[index], price);
+			doubles[index + 1] = Math.max(doubles[index + 1], price);
+		}
+
+		/**
+		 * Returns the chunk of the page, null if no order was ever added to a page of the chunk.
+		 */
+		private int[] intChunk(int pageId) {
+			int[][] current = intChunks;
+			return (pageId >>> CHUNK_BITS) < current.length ? current[pageId >>> CHUNK_BITS] : null;
+		}
+
+		private double[] doubleChunk(int pageId) {
+			double[][] current = doubleChunks;
+			return (pageId >>> CHUNK_BITS) < current.length ? current[pageId >>> CHUNK_BITS] : null;
+		}
+
+		/**
+		 * Adds chunks up to the given one, with empty ranges (minimum above maximum).
+		 */
+		private synchronized void grow(int chunk) {
+			int[][] ints = intChunks;
+			double[][] doubles = doubleChunks;
+			if (chunk < ints.length) {
+				return;
+			}
+			int length = Math.max(chunk + 1, ints.length * 2);
+			ints = Arrays.copyOf(ints, length);
+			doubles = Arrays.copyOf(doubles, length);
+			for (int i = intChunks.length; i < length; i++) {
+				ints[i] = new int[CHUNK_SIZE * INTS_PER_PAGE];
+				doubles[i] = new double[CHUNK_SIZE * DOUBLES_PER_PAGE];
+				for (int page = 0; page < CHUNK_SIZE; page++) {
+					ints[i][page * INTS_PER_PAGE] = Integer.MAX_VALUE;
+					ints[i][page * INTS_PER_PAGE + 1] = Integer.MIN_VALUE;
+					ints[i][page * INTS_PER_PAGE + 2] = Integer.MAX_VALUE;
+					ints[i][page * INTS_PER_PAGE + 3] = Integer.MIN_VALUE;
+					doubles[i][page * DOUBLES_PER_PAGE] = Double.POSITIVE_INFINITY;
+					doubles[i][page * DOUBLES_PER_PAGE + 1] = Double.NEGATIVE_INFINITY;
+				}
+			}
+			// The doubles first, so a reader that sees the new int chunks also sees the new double chunks
+			doubleChunks = doubles;
+			intChunks = ints;
+		}
+
+	}
+
+	/**
+	 * A histogram of latencies in buckets of powers of two nanoseconds: bucket i counts the latencies of
+	 * at least 2^(i-1) and less than 2^i ns. Recording is one LongAdder increment per value, so threads do not
+	 * contend; percentiles are resolved to the upper bound of their bucket, i.e. within a factor of two.
+	 *
+	 */
+	private static class LatencyHistogram {
+
+		static final int BUCKETS = 64;
+
+		private final LongAdder[] buckets = new LongAdder[BUCKETS];
+		private final LongAdder count = new LongAdder();
+		private final LongAdder totalNanos = new LongAdder();
+
+		public LatencyHistogram() {
+			for (int bucket = 0; bucket < BUCKETS; bucket++) {
+				buckets[bucket] = new LongAdder();
+			}
+		}
+
+		public void record(long nanos) {
+			buckets[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(Math.max(0, nanos)))].increment();
+			count.increment();
+			totalNanos.add(nanos);
+		}
+
+		public long getCount() {
+			return count.sum();
+		}
+
+		public double getMeanNanos() {
+			long n = count.sum();
+			return n == 0 ? 0 : (double) totalNanos.sum() / n;
+		}
+
+		/**
+		 * Returns the upper bound of the bucket holding the given percentile.
+		 * @param percentile between 0 and 100
+		 * @return the latency in nanoseconds, 0 if nothing was recorded
+		 */
+		public long getPercentileNanos(double percentile) {
+			long[] counts = new long[BUCKETS];
+			long n = 0;
+			for (int bucket = 0; bucket < BUCKETS; bucket++) {
+				counts[bucket] = buckets[bucket].sum();
+				n += counts[bucket];
+			}
+			long rank = (long) Math.ceil(percentile / 100 * n);
+			long seen = 0;
+			for (int bucket = 0; bucket < BUCKETS; bucket++) {
+				seen += counts[bucket];
+				if (seen >= rank && counts[bucket] > 0) {
+					return bucket == 0 ? 0 : 1L << Math.min(62, bucket);
+				}
+			}
+			return 0;
+		}
+
+		public void reset() {
+			for (LongAdder bucket : buckets) {
+				bucket.reset();
+			}
+			count.reset();
+			totalNanos.reset();
+		}
+
+		public String toString() {
+			return String.format("n=%d mean=%.0fns p50<=%dns p99<=%dns", getCount(), getMeanNanos(), getPercentileNanos(50),
+					getPercentileNanos(99));
+		}
+
+	}
+
+	/**
+	 * Counters and latency histograms of the hot paths of a SlottedPageExercise: inserts (pages probed, bytes
+	 * serialized), reads, unusedBytes (each reads a page header) and the page reads and writes of its buffer pool.
+	 * The allocated bytes are measured per operation with the allocation counter of the calling thread.
+	 * All counters are LongAdders, so counting does not make the threads contend; the same operations are also
+	 * recorded as JFR events (category "Database") when a flight recording has them enabled.
+	 *
+	 */
+	private static class StorageMetrics {
+
+		/**
+		 * The allocation counter of the threads, null if the JVM does not provide one
+		 */
+		private static final com.sun.management.ThreadMXBean THREADS = ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean
+				? (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean() : null;
+
+		private final BufferPool pool;
+
+		final LongAdder inserts = new LongAdder();
+		final LongAdder insertPagesProbed = new LongAdder();
+		final LongAdder insertBytes = new LongAdder();
+		final LongAdder insertAllocatedBytes = new LongAdder();
+		final LatencyHistogram insertLatency = new LatencyHistogram();
+
+		final LongAdder reads = new LongAdder();
+		final LongAdder readsNotFound = new LongAdder();
+		final LongAdder readAllocatedBytes = new LongAdder();
+		final LatencyHistogram readLatency = new LatencyHistogram();
+
+		final LongAdder headerReads = new LongAdder();
+		final LatencyHistogram unusedBytesLatency = new LatencyHistogram();
+
+		StorageMetrics(BufferPool pool) {
+			this.pool = pool;
+		}
+
+		/**
+		 * Returns the bytes the calling thread allocated so far, 0 if the JVM does not count them.
+		 */
+		static long allocatedBytes() {
+			return THREADS == null ? 0 : THREADS.getCurrentThreadAllocatedBytes();
+		}
+
+		void insertDone(long startNanos, long startAllocated, int bytes) {
+			inserts.increment();
+			insertBytes.add(bytes);
+			insertAllocatedBytes.add(allocatedBytes() - startAllocated);
+			insertLatency.record(System.nanoTime() - startNanos);
+		}
+
+		void readDone(long startNanos, long startAllocated, boolean found) {
+			reads.increment();
+			if (!found) {
+				readsNotFound.increment();
+			}
+			readAllocatedBytes.add(allocatedBytes() - startAllocated);
+			readLatency.record(System.nanoTime() - startNanos);
+		}
+
+		/**
+		 * Returns all counters by name, e.g. to export them to a monitoring system.
+		 * Latencies are in nanoseconds, the page counters are those of the buffer pool.
+		 */
+		public Map<String, Number> snapshot() {
+			Map<String, Number> values = new TreeMap<String, Number>();
+			long insertCount = inserts.sum();
+			values.put("insert.count", insertCount);
+			values.put("insert.pagesProbed", insertPagesProbed.sum());
+			values.put("insert.bytesSerialized", insertBytes.sum());
+			values.put("insert.allocatedBytes", insertAllocatedBytes.sum());
+			values.put("insert.latency.mean", insertLatency.getMeanNanos());
+			values.put("insert.latency.p50", insertLatency.getPercentileNanos(50));
+			values.put("insert.latency.p99", insertLatency.getPercentileNanos(99));
+			values.put("read.count", reads.sum());
+			values.put("read.notFound", readsNotFound.sum());
+			values.put("read.allocatedBytes", readAllocatedBytes.sum());
+			values.put("read.latency.mean", readLatency.getMeanNanos());
+			values.put("read.latency.p50", readLatency.getPercentileNanos(50));
+			values.put("read.latency.p99", readLatency.getPercentileNanos(99));
+			values.put("unusedBytes.headerReads", headerReads.sum());
+			values.put("unusedBytes.latency.mean", unusedBytesLatency.getMeanNanos());
+			values.put("page.reads", pool.getMisses() + pool.getPrefetches());
+			values.put("page.writes", pool.getWriteBacks());
+			values.put("page.bytesCopied", (pool.getMisses() + pool.getPrefetches() + pool.getWriteBacks()) * pool.getStorage().getPageSize());
+			values.put("page.read.latency.mean", pool.getReadLatency().getMeanNanos());
+			values.put("page.read.latency.p99", pool.getReadLatency().getPercentileNanos(99));
+			values.put("page.write.latency.mean", pool.getWriteLatency().getMeanNanos());
+			return values;
+		}
+
+		/**
+		 * Sets all counters of the operations to 0; the counters of the buffer pool keep running.
+		 */
+		public void reset() {
+			for (LongAdder counter : new LongAdder[] { inserts, insertPagesProbed, insertBytes, insertAllocatedBytes, reads,
+					readsNotFound, readAllocatedBytes, headerReads }) {
+				counter.reset();
+			}
+			insertLatency.reset();
+			readLatency.reset();
+			unusedBytesLatency.reset();
+		}
+
+		public String toString() {
+			long insertCount = Math.max(1, inserts.sum());
+			return String.format("inserts: %s, %.2f pages probed, %.1f bytes serialized, %.0f bytes allocated per insert%n"
+					+ "reads: %s, %.0f bytes allocated per read%n" + "unusedBytes: %s%n" + "page reads: %s, page writes: %s",
+					insertLatency, (double) insertPagesProbed.sum() / insertCount, (double) insertBytes.sum() / insertCount,
+					(double) insertAllocatedBytes.sum() / insertCount, readLatency,
+					(double) readAllocatedBytes.sum() / Math.max(1, reads.sum()), unusedBytesLatency, pool.getReadLatency(),
+					pool.getWriteLatency());
+		}
+
+	}
+
+	/**
+	 * JFR event of SlottedPageExercise.storeOrder.
+	 */
+	@Name("dbs.StoreOrder")
+	@Label("Store Order")
+	@Category("Database")
+	private static class StoreOrderEvent extends Event {
+
+		@Label("Page")
+		int pageId;
+
+		@Label("Slot")
+		int slot;
+
+		@Label("Tuple Size")
+		@DataAmount
+		int bytes;
+
+	}
+
+	/**
+	 * JFR event of SlottedPageExercise.getOrder.
+	 */
+	@Name("dbs.GetOrder")
+	@Label("Get Order")
+	@Category("Database")
+	private static class GetOrderEvent extends Event {
+
+		@Label("Page")
+		int pageId;
+
+		@Label("Slot")
+		int slot;
+
+		@Label("Found")
+		boolean found;
+
+	}
+
+	/**
+	 * JFR event of a page read from the storage into the buffer pool.
+	 */
+	@Name("dbs.PageRead")
+	@Label("Page Read")
+	@Category("Database")
+	private static class PageReadEvent extends Event {
+
+		@Label("Page")
+		int pageId;
+
+	}
+
+	/**
+	 * JFR event of a page written back from the buffer pool to the storage.
+	 */
+	@Name("dbs.PageWrite")
+	@Label("Page Write")
+	@Category("Database")
+	private static class PageWriteEvent extends Event {
+
+		@Label("Page")
+		int pageId;
+
+	}
+
+	/**
+	 * One latch (a StampedLock) per page, protecting the page content while it is read or modified.
+	 * Writers hold the write lock; readers of a single tuple first read optimistically and only take
+	 * the read lock if a writer interfered. A thread that already holds a page latch only takes another
+	 * one without waiting (tryWriteLock), so threads can never wait for each other in a cycle.
+	 * The latches are kept in chunks indexed by page id, so no map lookup or boxing is needed.
+	 *
+	 */
+	private static class PageLatches {
+
+		private static final int CHUNK_BITS = 10;
+		private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+		private final BlockStorage storage;
+		private volatile StampedLock[][] chunks = new StampedLock[0][];
+
+		/**
+		 * Creates the latches for the pages of the given storage.
+		 * @param storage the storage, to reject page ids it does not know
+		 */
+		public PageLatches(BlockStorage storage) {
+			this.storage = storage;
+		}
+
+		/**
+		 * Returns the latch of the given page.
+		 * @param pageId the id of the page
+		 * @return the latch
+		 * @throws PageNotFoundException if the storage does not know the page, so no latches are made for it
+		 */
+		public StampedLock get(int pageId) throws PageNotFoundException {
+			if (!storage.containsPage(pageId)) {
+				throw new PageNotFoundException("page " + pageId + " not known");
+			}
+			StampedLock[][] current = chunks;
+			int chunk = pageId >>> CHUNK_BITS;
+			if (chunk >= current.length) {
+				current = grow(chunk);
+			}
+			return current[chunk][pageId & (CHUNK_SIZE - 1)];
+		}
+
+		private synchronized StampedLock[][] grow(int chunk) {
+			StampedLock[][] current = chunks;
+			if (chunk < current.length) {
+				return current;
+			}
+			StampedLock[][] grown = Arrays.copyOf(current, Math.max(chunk + 1, current.length * 2));
+			for (int i = current.length; i < grown.length; i++) {
+				grown[i] = new StampedLock[CHUNK_SIZE];
+				for (int j = 0; j < CHUNK_SIZE; j++) {
+					grown[i][j] = new StampedLock();
+				}
+			}
+			chunks = grown;
+			return grown;
+		}
+
+	}
+
+	/**
+	 * A page that is write-latched and pinned for a change of one of its tuples, released by close (in a
+	 * try-with-resources statement). An attempt calls markChanged before it modifies the page; only then close
+	 * reports the change to the table and unpins the page as modified. Both table layouts change tuples
+	 * with the same protocol: the home page of the tuple is latched waiting (open), the page a moved tuple lives on
+	 * only without waiting (tryOpen), as the home latch is held then (see PageLatches). If that fails, the attempt
+	 * returns RETRY and is repeated by retry.
+	 *
+	 */
+	private static class LatchedPage implements Closeable {
+
+		/**
+		 * Reports a changed page to its table, e.g. its unused bytes to the free-space map.
+		 */
+		interface ChangeListener {
+			void pageChanged(int pgId, ByteBuffer page);
+		}
+
+		/**
+		 * One attempt of a change, see retry.
+		 */
+		interface Attempt {
+
+			/**
+			 * @return DONE, NOT_FOUND or RETRY
+			 */
+			int run() throws Exception;
+		}
+
+		final int pageId;
+		final ByteBuffer page;
+		private final BufferPool pool;
+		private final StampedLock latch;
+		private final long stamp;
+		private final ChangeListener listener;
+		private boolean changed;
+
+		private LatchedPage(BufferPool pool, int pageId, StampedLock latch, long stamp, ChangeListener listener) throws PageNotFoundException {
+			try {
+				this.page = pool.pin(pageId);
+			} catch (PageNotFoundException | RuntimeException e) {
+				latch.unlockWrite(stamp);
+				throw e;
+			}
+			this.pageId = pageId;
+			this.pool = pool;
+			this.latch = latch;
+			this.stamp = stamp;
+			this.listener = listener;
+		}
+
+		/**
+		 * Write-latches the given page, waiting for the latch, and pins it.
+		 * @param listener called with the page before it is released
+		 */
+		static LatchedPage open(PageLatches latches, BufferPool pool, int pageId, ChangeListener listener) throws PageNotFoundException {
+			StampedLock latch = latches.get(pageId);
+			return new LatchedPage(pool, pageId, latch, latch.writeLock(), listener);
+		}
+
+		/**
+		 * Write-latches the given page without waiting and pins it.
+		 * @param listener called with the page before it is released
+		 * @return the latched page, null if another thread holds its latch
+		 */
+		static LatchedPage tryOpen(PageLatches latches, BufferPool pool, int pageId, ChangeListener listener) throws PageNotFoundException {
+			StampedLock latch = latches.get(pageId);
+			long stamp = latch.tryWriteLock();
+			return stamp == 0 ? null : new LatchedPage(pool, pageId, latch, stamp, listener);
+		}
+
+		/**
+		 * Repeats the attempt until it does not return RETRY, letting the thread that holds the latch go on in between.
+		 * @return true if the attempt returned DONE, false if NOT_FOUND
+		 */
+		static boolean retry(Attempt attempt) throws Exception {
+			while (true) {
+				int result = attempt.run();
+				if (result != RETRY) {
+					return result == DONE;
+				}
+				Thread.yield();
+			}
+		}
+
+		/**
+		 * Records that the page is modified, has to be called before the first change.
+		 */
+		void markChanged() {
+			changed = true;
+		}
+
+		/**
+		 * Reports a change (see markChanged), unpins the page and releases the latch.
+		 */
+		public void close() {
+			try {
+				try {
+					if (changed) {
+						listener.pageChanged(pageId, page);
+					}
+				} finally {
+					pool.unpin(pageId, changed);
+				}
+			} finally {
+				latch.unlockWrite(stamp);
+			}
+		}
+
+	}
+
+	/**
+	 * A table of orders in PAX layout (partition attributes across), as an alternative to the row-wise slotted pages.
+	 * Each page holds up to a fixed number of tuples (its capacity). Each fixed-width attribute of the record format
+	 * has its own mini-page inside the page, an array with one value per slot. The Strings of all tuples go to a
+	 * variable-length area at the end of the page, which is addressed by a directory mini-page. A scan that only needs
+	 * o_totalprice thus reads one dense array of doubles per page instead of every record.
+	 * 
+	 * TupleIdentifiers behave as with the slotted pages: a slot keeps its index until it is deleted, and a tuple
+	 * that does not fit into its page any more after an update is moved to another page, its home slot forwarding
+	 * to the new place (the target page and slot are kept in the orderkey and custkey mini-pages of the home slot).
+	 * 
+	 * Page layout:
+	 * - The header: slot count, start of the variable-length data (0 meaning the page end), bytes in holes
+	 *   of the variable-length data, free slots, capacity (one int each)
+	 * - One mini-page per fixed-width attribute (COLUMN_OFFSETS / COLUMN_WIDTHS), capacity values each
+	 * - The directory: per slot the offset and length (u16 each) of its variable-length data
+	 * - The free space and the variable-length data (the tail of the record format, see Order), growing from the page end
+	 * The PAX_* bits of the flags mini-page mark used, forwarding and moved slots.
+	 * 
+	 * Only the OrderTable operations and the price sums are supported. Unlike SlottedPageExercise, a PaxTable
+	 * - has no WriteAheadLog: changes are durable only once the buffer pool and the storage are flushed,
+	 * - has no SpaceStatistics: getSpaceUtilization reads every page,
+	 * - has no ZoneMap: orders() reads every page, OrderPredicate.mayMatch is never asked,
+	 * - has no OrderKeyIndex: orders can only be looked up by TupleIdentifier.
+	 *
+	 */
+	private static class PaxTable implements OrderTable {
+
+		/**
+		 * Offsets of the fields in the page header
+		 */
+		static final int SLOT_COUNT_OFFSET = 0;
+		static final int VAR_START_OFFSET = 4;
+		static final int FRAGMENTED_OFFSET = 8;
+		static final int FREE_SLOTS_OFFSET = 12;
+		static final int CAPACITY_OFFSET = 16;
+		static final int PAX_HEADER_SIZE = 20;
+
+		/**
+		 * The fixed-width attributes of the record format, each stored in its own mini-page
+		 */
+		static final int[] COLUMN_OFFSETS = { Order.FLAGS_OFFSET, Order.PRIORITY_OFFSET, Order.STATUS_OFFSET,
+				Order.ORDERKEY_OFFSET, Order.CUSTKEY_OFFSET, Order.SHIPPRIORITY_OFFSET, Order.ORDERDATE_OFFSET,
+				Order.CLERK_OFFSET, Order.TOTALPRICE_OFFSET };
+		static final int[] COLUMN_WIDTHS = { 1, 1, 1, 4, 4, 4, 4, 4, 8 };
+		static final int FLAGS_COLUMN = 0;
+		static final int STATUS_COLUMN = 2;
+		static final int ORDERKEY_COLUMN = 3;
+		static final int CUSTKEY_COLUMN = 4;
+		static final int TOTALPRICE_COLUMN = 8;
+
+		/**
+		 * The bytes of one directory entry: offset and length of the variable-length data
+		 */
+		static final int DIRECTORY_ENTRY_SIZE = 4;
+
+		/**
+		 * Bits of the flags mini-page, above the flags of the record format
+		 */
+		static final int PAX_USED = 0x20;
+		static final int PAX_MOVED = 0x40;
+		static final int PAX_FORWARD = 0x80;
+		static final int RECORD_FLAGS = 0x1F;
+
+		private final BlockStorage storage;
+		private final BufferPool pool;
+		private final FreeSpaceMap freeSpace;
+		private final PageLatches latches;
+		private final int capacity;
+		private final boolean compressComments;
+
+		/**
+		 * The offset of each mini-page, of the directory and of the first byte behind the directory
+		 */
+		private final int[] columnStarts;
+		private final int directoryStart;
+		private final int fixedEnd;
+
+		/**
+		 * Creates a PAX table on the pages of the given buffer pool.
+		 * Pages that already exist in the storage must have been written by a PaxTable of the same capacity.
+		 * @param pool the buffer pool through which all pages are accessed
+		 * @param capacity the number of tuples a page can hold at most
+		 * @param compressComments true to compress the comments (see CommentCodec)
+		 * @throws Exception
+		 */
+		public PaxTable(BufferPool pool, int capacity, boolean compressComments) throws Exception {
+			this.pool = pool;
+			this.storage = pool.getStorage();
+			this.capacity = capacity;
+			this.compressComments = compressComments;
+			this.columnStarts = new int[COLUMN_WIDTHS.length];
+			int start = PAX_HEADER_SIZE;
+			for (int column = 0; column < COLUMN_WIDTHS.length; column++) {
+				columnStarts[column] = start;
+				start += capacity * COLUMN_WIDTHS[column];
+			}
+			this.directoryStart = start;
+			this.fixedEnd = start + capacity * DIRECTORY_ENTRY_SIZE;
+			if (fixedEnd >= storage.getPageSize()) {
+				throw new IllegalArgumentException(capacity + " tuples do not fit into a page of " + storage.getPageSize() + " bytes");
+			}
+			this.freeSpace = new FreeSpaceMap(storage.getPageSize(), Runtime.getRuntime().availableProcessors());
+			this.latches = new PageLatches(storage);
+			for (int id : storage.getAllPageIds()) {
+				ByteBuffer page = pool.pin(id);
+				try {
+					if (page.getInt(CAPACITY_OFFSET) != capacity) {
+						throw new IllegalArgumentException("page " + id + " holds " + page.getInt(CAPACITY_OFFSET) + " tuples, not " + capacity);
+					}
+					freeSpace.update(id, insertableBytes(page));
+				} finally {
+					pool.unpin(id, false);
+				}
+			}
+		}
+
+		/**
+		 * Returns the number of tuples a page of the given size can hold in PAX layout,
+		 * if the variable-length data of a tuple takes the given number of bytes on average.
+		 */
+		public static int capacityFor(int pageSize, int averageVarBytes) {
+			int fixedBytes = DIRECTORY_ENTRY_SIZE;
+			for (int width : COLUMN_WIDTHS) {
+				fixedBytes += width;
+			}
+			return Math.max(1, (pageSize - PAX_HEADER_SIZE) / (fixedBytes + averageVarBytes));
+		}
+
+		public BufferPool getBufferPool() {
+			return pool;
+		}
+
+		/**
+		 * Stores the given order object.
+		 * @param o The object to be stored
+		 * @return the TupleIdentifier pointing to the tuple
+		 * @throws Exception
+		 */
+		public TupleIdentifier storeOrder(Order o) throws Exception {
+			return insertTuple(encode(o), 0, true);
+		}
+
+		/**
+		 * Returns the Order object corresponding to the given TupleIdentifier.
+		 * @param tid The tuple identifier
+		 * @return the order object, null if there is no tuple for the TupleIdentifier
+		 * @throws Exception
+		 */
+		public Order getOrder(TupleIdentifier tid) throws Exception {
+			StampedLock latch = latches.get(tid.getPage());
+			long stamp = latch.readLock();
+			try {
+				ByteBuffer page = pool.pin(tid.getPage());
+				try {
+					int slot = tid.getSlot();
+					int flags = usedFlags(page, slot);
+					if (flags == 0) {
+						return null;
+					}
+					if ((flags & PAX_FORWARD) != 0) {
+						// The home latch stays held, so the tuple cannot move again before it is read
+						return readMovedOrder(page.getInt(columnAddress(ORDERKEY_COLUMN, slot)), page.getInt(columnAddress(CUSTKEY_COLUMN, slot)));
+					}
+					return decode(page, slot);
+				} finally {
+					pool.unpin(tid.getPage(), false);
+				}
+			} finally {
+				latch.unlockRead(stamp);
+			}
+		}
+
+		/**
+		 * Replaces the order stored under the given TupleIdentifier, which stays valid (see SlottedPageExercise.updateOrder).
+		 * @param tid The tuple identifier
+		 * @param o The new order
+		 * @return true if the order was replaced, false if there is no tuple for the TupleIdentifier
+		 * @throws Exception
+		 */
+		public boolean updateOrder(TupleIdentifier tid, Order o) throws Exception {
+			byte[] record = encode(o);
+			return LatchedPage.retry(() -> tryUpdateOrder(tid.getPage(), tid.getSlot(), record));
+		}
+
+		/**
+		 * Deletes the order stored under the given TupleIdentifier.
+		 * @param tid The tuple identifier
+		 * @return true if the order was deleted, false if there is no tuple for the TupleIdentifier
+		 * @throws Exception
+		 */
+		public boolean deleteOrder(TupleIdentifier tid) throws Exception {
+			return LatchedPage.retry(() -> tryDeleteOrder(tid.getPage(), tid.getSlot()));
+		}
+
+		/**
+		 * Computes SUM(o_totalprice) over all orders, reading only the totalprice and flags mini-pages.
+		 * @param parallel true to scan ranges of pages in parallel
+		 * @return the sum of all total prices
+		 */
+		public double sumTotalPrice(boolean parallel) {
+			return StreamSupport.intStream(new PageRangeSpliterator(0, storage.numberOfPagesUsed()), parallel)
+					.mapToDouble(this::sumTotalPrice).sum();
+		}
+
+		/**
+		 * Computes SUM(o_totalprice) GROUP BY o_orderstatus, reading only the status, totalprice and flags mini-pages.
+		 * @param parallel true to scan ranges of pages in parallel
+		 * @return the sum of the total prices for each order status, sorted by order status
+		 */
+		public Map<Character, Double> sumTotalPriceByStatus(boolean parallel) {
+			return StreamSupport.intStream(new PageRangeSpliterator(0, storage.numberOfPagesUsed()), parallel)
+					.collect(StatusPriceSums::new, this::sumTotalPriceByStatus, StatusPriceSums::merge).toMap();
+		}
+
+		/**
+		 * Returns the orders of the table that match the given predicate as a stream, in page order.
+		 * The predicate is tested on the record format collected from the mini-pages, before the order is decoded.
+		 * There are no zone maps, so every page is read.
+		 * @param predicate the condition the orders have to fulfill
+		 * @param parallel true for a parallel stream, which scans ranges of pages concurrently
+		 * @return the stream of orders
+		 */
+		public Stream<Order> orders(OrderPredicate predicate, boolean parallel) {
+			return StreamSupport.intStream(new PageRangeSpliterator(0, storage.numberOfPagesUsed()), parallel).mapToObj(pgId -> {
+				List<Order> orders = new ArrayList<Order>();
+				scanPageUnchecked(pgId, predicate, orders);
+				return orders;
+			}).flatMap(List::stream);
+		}
+
+		/**
+		 * Returns the fraction of the allocated bytes used by tuples, their mini-page entries and the page headers.
+		 */
+		public double getSpaceUtilization() throws Exception {
+			long used = 0;
+			for (int id : storage.getAllPageIds()) {
+				StampedLock latch = latches.get(id);
+				long stamp = latch.readLock();
+				try {
+					ByteBuffer page = pool.pin(id);
+					try {
+						int slotCount = page.getInt(SLOT_COUNT_OFFSET);
+						used += PAX_HEADER_SIZE + (long) (fixedEnd - PAX_HEADER_SIZE) * (slotCount - page.getInt(FREE_SLOTS_OFFSET)) / capacity
+								+ page.capacity() - varStart(page) - page.getInt(FRAGMENTED_OFFSET);
+					} finally {
+						pool.unpin(id, false);
+					}
+				} finally {
+					latch.unlockRead(stamp);
+				}
+			}
+			return (double) used / storage.totalBytesAllocated();
+		}
+
+		/**
+		 * Encodes the order in the record format, whose fixed-width part is later spread over the mini-pages.
+		 */
+		private byte[] encode(Order o) throws Exception {
+			byte[] record = new byte[o.getEncodedSize(compressComments)];
+			o.writeTo(ByteBuffer.wrap(record), 0, compressComments);
+			if (record.length - Order.FIXED_SIZE > storage.getPageSize() - fixedEnd) {
+				throw new Exception("Tuple of " + record.length + " bytes does not fit into an empty page");
+			}
+			return record;
+		}
+
+		/**
+		 * Collects the attributes of the tuple in the given slot back into the record format and decodes it.
+		 */
+		private Order decode(ByteBuffer page, int slot) throws IOException {
+			return new Order(record(page, slot), 0);
+		}
+
+		/**
+		 * Collects the attributes of the tuple in the given slot back into the record format.
+		 */
+		private ByteBuffer record(ByteBuffer page, int slot) {
+			int varOffset = page.getChar(directoryStart + slot * DIRECTORY_ENTRY_SIZE);
+			int varLength = page.getChar(directoryStart + slot * DIRECTORY_ENTRY_SIZE + 2);
+			ByteBuffer record = ByteBuffer.allocate(Order.FIXED_SIZE + varLength);
+			record.put(Order.VERSION_OFFSET, Order.FORMAT_VERSION);
+			for (int column = 0; column < COLUMN_WIDTHS.length; column++) {
+				record.put(COLUMN_OFFSETS[column], page, columnAddress(column, slot), COLUMN_WIDTHS[column]);
+			}
+			record.put(Order.FLAGS_OFFSET, (byte) (record.get(Order.FLAGS_OFFSET) & RECORD_FLAGS));
+			record.put(Order.FIXED_SIZE, page, varOffset, varLength);
+			return record;
+		}
+
+		/**
+		 * Spreads the encoded order over the mini-pages of the given slot and reserves its variable-length data.
+		 * The caller has to make sure that the page has insertableBytes of at least the variable-length size.
+		 */
+		private void writeTuple(ByteBuffer page, int slot, byte[] record, int paxFlags) {
+			int varLength = record.length - Order.FIXED_SIZE;
+			int varOffset = reserveSpace(page, varLength);
+			page.put(varOffset, record, Order.FIXED_SIZE, varLength);
+			page.putChar(directoryStart + slot * DIRECTORY_ENTRY_SIZE, (char) varOffset);
+			page.putChar(directoryStart + slot * DIRECTORY_ENTRY_SIZE + 2, (char) varLength);
+			for (int column = 0; column < COLUMN_WIDTHS.length; column++) {
+				page.put(columnAddress(column, slot), record, COLUMN_OFFSETS[column], COLUMN_WIDTHS[column]);
+			}
+			page.put(columnAddress(FLAGS_COLUMN, slot), (byte) (record[Order.FLAGS_OFFSET] | PAX_USED | paxFlags));
+		}
+
+		/**
+		 * Turns the given slot into a forward to the given target, giving back its variable-length data.
+		 */
+		private void writeForward(ByteBuffer page, int slot, int targetPage, int targetSlot) {
+			releaseSpace(page, slot);
+			page.putInt(columnAddress(ORDERKEY_COLUMN, slot), targetPage);
+			page.putInt(columnAddress(CUSTKEY_COLUMN, slot), targetSlot);
+			page.put(columnAddress(FLAGS_COLUMN, slot), (byte) (PAX_USED | PAX_FORWARD));
+		}
+
+		/**
+		 * Stores the record in a page with a free slot and enough room for its variable-length data.
+		 * @param waitForLatch see SlottedPageExercise.insertTuple
+		 */
+		private TupleIdentifier insertTuple(byte[] record, int paxFlags, boolean waitForLatch) throws Exception {
+			int varLength = record.length - Order.FIXED_SIZE;
+			while (true) {
+				int pgId = freeSpace.findPage(Math.max(varLength, 1));
+				if (pgId < 0) {
+					pgId = allocatePage();
+				}
+				StampedLock latch = latches.get(pgId);
+				long stamp = waitForLatch ? latch.writeLock() : latch.tryWriteLock();
+				if (stamp == 0) {
+					pgId = allocatePage();
+					latch = latches.get(pgId);
+					stamp = latch.writeLock();
+				}
+				ByteBuffer page = pool.pin(pgId);
+				boolean inserted = false;
+				try {
+					if (insertableBytes(page) >= Math.max(varLength, 1)) {
+						int slot = takeSlot(page);
+						writeTuple(page, slot, record, paxFlags);
+						inserted = true;
+						return new TupleIdentifier(pgId, slot);
+					}
+				} finally {
+					freeSpace.update(pgId, insertableBytes(page));
+					pool.unpin(pgId, inserted);
+					latch.unlockWrite(stamp);
+				}
+			}
+		}
+
+		/**
+		 * One attempt of updateOrder, latching a second page only without waiting.
+		 * @return DONE, NOT_FOUND or RETRY
+		 */
+		private int tryUpdateOrder(int pgId, int slot, byte[] record) throws Exception {
+			try (LatchedPage home = LatchedPage.open(latches, pool, pgId, this::pageChanged)) {
+				ByteBuffer page = home.page;
+				int flags = usedFlags(page, slot);
+				if (flags == 0) {
+					return NOT_FOUND;
+				}
+				if ((flags & PAX_FORWARD) != 0) {
+					int targetPage = page.getInt(columnAddress(ORDERKEY_COLUMN, slot));
+					int targetSlot = page.getInt(columnAddress(CUSTKEY_COLUMN, slot));
+					try (LatchedPage target = LatchedPage.tryOpen(latches, pool, targetPage, this::pageChanged)) {
+						if (target == null) {
+							return RETRY;
+						}
+						target.markChanged();
+						if (replaceTuple(target.page, targetSlot, record, PAX_MOVED)) {
+							return DONE;
+						}
+						freeSlot(target.page, targetSlot);
+					}
+					// The home slot keeps no variable-length data, so the order fits if it fits into the page
+					home.markChanged();
+					page.put(columnAddress(FLAGS_COLUMN, slot), (byte) PAX_USED);
+					page.putChar(directoryStart + slot * DIRECTORY_ENTRY_SIZE + 2, (char) 0);
+				}
+				home.markChanged();
+				if (!replaceTuple(page, slot, record, 0)) {
+					TupleIdentifier target = insertTuple(record, PAX_MOVED, false);
+					writeForward(page, slot, target.getPage(), target.getSlot());
+				}
+				return DONE;
+			}
+		}
+
+		/**
+		 * One attempt of deleteOrder, latching a second page only without waiting.
+		 * @return DONE, NOT_FOUND or RETRY
+		 */
+		private int tryDeleteOrder(int pgId, int slot) throws Exception {
+			try (LatchedPage home = LatchedPage.open(latches, pool, pgId, this::pageChanged)) {
+				ByteBuffer page = home.page;
+				int flags = usedFlags(page, slot);
+				if (flags == 0) {
+					return NOT_FOUND;
+				}
+				if ((flags & PAX_FORWARD) != 0) {
+					int targetPage = page.getInt(columnAddress(ORDERKEY_COLUMN, slot));
+					try (LatchedPage target = LatchedPage.tryOpen(latches, pool, targetPage, this::pageChanged)) {
+						if (target == null) {
+							return RETRY;
+						}
+						target.markChanged();
+						freeSlot(target.page, page.getInt(columnAddress(CUSTKEY_COLUMN, slot)));
+					}
+				}
+				home.markChanged();
+				freeSlot(page, slot);
+				return DONE;
+			}
+		}
+
+		/**
+		 * Reports the insertable bytes of a modified page to the free-space map. Has to be called while the page is latched.
+		 */
+		private void pageChanged(int pgId, ByteBuffer page) {
+			freeSpace.update(pgId, insertableBytes(page));
+		}
+
+		/**
+		 * Replaces the tuple in the given slot, if the new variable-length data fits into the page.
+		 * @return true if the tuple was replaced
+		 */
+		private boolean replaceTuple(ByteBuffer page, int slot, byte[] record, int paxFlags) {
+			int oldLength = page.getChar(directoryStart + slot * DIRECTORY_ENTRY_SIZE + 2);
+			if (unusedVarBytes(page) + oldLength < record.length - Order.FIXED_SIZE) {
+				return false;
+			}
+			releaseSpace(page, slot);
+			writeTuple(page, slot, record, paxFlags);
+			return true;
+		}
+
+		/**
+		 * Sums the total prices of the orders whose home is the given page.
+		 */
+		private double sumTotalPrice(int pgId) {
+			double[] sum = new double[1];
+			scanPricesUnchecked(pgId, (status, price) -> sum[0] += price);
+			return sum[0];
+		}
+
+		private void sumTotalPriceByStatus(StatusPriceSums sums, int pgId) {
+			scanPricesUnchecked(pgId, sums::add);
+		}
+
+		/**
+		 * Adds every order whose home is the given page and that matches the predicate to the list, in slot order.
+		 * A moved order is read from its target page while the latch of its home page is held, as in getOrder.
+		 */
+		private void scanPage(int pgId, OrderPredicate predicate, List<Order> orders) throws PageNotFoundException, IOException {
+			StampedLock latch = latches.get(pgId);
+			long stamp = latch.readLock();
+			try {
+				ByteBuffer page = pool.pin(pgId);
+				try {
+					int slotCount = page.getInt(SLOT_COUNT_OFFSET);
+					for (int slot = 0; slot < slotCount; slot++) {
+						int flags = usedFlags(page, slot);
+						if (flags == 0) {
+							continue;
+						}
+						ByteBuffer record = (flags & PAX_FORWARD) != 0
+								? readMovedRecord(page.getInt(columnAddress(ORDERKEY_COLUMN, slot)), page.getInt(columnAddress(CUSTKEY_COLUMN, slot)))
+								: record(page, slot);
+						if (predicate.test(record, 0)) {
+							orders.add(new Order(record, 0));
+						}
+					}
+				} finally {
+					pool.unpin(pgId, false);
+				}
+			} finally {
+				latch.unlockRead(stamp);
+			}
+		}
+
+		/**
+		 * scanPage for lambdas, with the checked exceptions wrapped into unchecked ones.
+		 */
+		private void scanPageUnchecked(int pgId, OrderPredicate predicate, List<Order> orders) {
+			try {
+				scanPage(pgId, predicate, orders);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			} catch (PageNotFoundException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		/**
+		 * Receives status and price of each order in scanPrices.
+		 */
+		private interface PriceConsumer {
+			void accept(char status, double price);
+		}
+
+		/**
+		 * Hands the status and price of every order whose home is the given page to the consumer, reading
+		 * the flags, status and totalprice mini-pages only. A moved order is read from its target page.
+		 */
+		private void scanPrices(int pgId, PriceConsumer consumer) throws PageNotFoundException, IOException {
+			StampedLock latch = latches.get(pgId);
+			long stamp = latch.readLock();
+			try {
+				ByteBuffer page = pool.pin(pgId);
+				try {
+					int slotCount = page.getInt(SLOT_COUNT_OFFSET);
+					int flagsStart = columnStarts[FLAGS_COLUMN];
+					int statusStart = columnStarts[STATUS_COLUMN];
+					int priceStart = columnStarts[TOTALPRICE_COLUMN];
+					for (int slot = 0; slot < slotCount; slot++) {
+						int flags = page.get(flagsStart + slot) & 0xFF;
+						if ((flags & PAX_USED) == 0 || (flags & PAX_MOVED) != 0) {
+							continue;
+						}
+						if ((flags & PAX_FORWARD) != 0) {
+							scanMovedPrice(page.getInt(columnAddress(ORDERKEY_COLUMN, slot)), page.getInt(columnAddress(CUSTKEY_COLUMN, slot)), consumer);
+						} else if ((flags & Order.STATUS_TEXT) == 0) {
+							consumer.accept((char) page.get(statusStart + slot), page.getDouble(priceStart + slot * 8));
+						} else {
+							consumer.accept(decode(page, slot).o_orderstatus, page.getDouble(priceStart + slot * 8));
+						}
+					}
+				} finally {
+					pool.unpin(pgId, false);
+				}
+			} finally {
+				latch.unlockRead(stamp);
+			}
+		}
+
+		/**
+		 * scanPrices for lambdas, with the checked exceptions wrapped into unchecked ones.
+		 */
+		private void scanPricesUnchecked(int pgId, PriceConsumer consumer) {
+			try {
+				scanPrices(pgId, consumer);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			} catch (PageNotFoundException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		private void scanMovedPrice(int pgId, int slot, PriceConsumer consumer) throws PageNotFoundException, IOException {
+			Order o = readMovedOrder(pgId, slot);
+			consumer.accept(o.o_orderstatus, o.o_totalprice);
+		}
+
+		/**
+		 * Reads the moved tuple in the given slot. The caller holds the latch of the slot forwarding to it.
+		 */
+		private Order readMovedOrder(int pgId, int slot) throws PageNotFoundException, IOException {
+			return new Order(readMovedRecord(pgId, slot), 0);
+		}
+
+		/**
+		 * Collects the moved tuple in the given slot into the record format, as readMovedOrder.
+		 */
+		private ByteBuffer readMovedRecord(int pgId, int slot) throws PageNotFoundException {
+			StampedLock latch = latches.get(pgId);
+			long stamp = latch.readLock();
+			try {
+				ByteBuffer page = pool.pin(pgId);
+				try {
+					return record(page, slot);
+				} finally {
+					pool.unpin(pgId, false);
+				}
+			} finally {
+				latch.unlockRead(stamp);
+			}
+		}
+
+		/**
+		 * Returns the flags of the given slot, 0 if the slot does not exist, is free or holds a moved tuple
+		 * (which is only reached through the slot forwarding to it).
+		 */
+		private int usedFlags(ByteBuffer page, int slot) {
+			if (slot < 0 || slot >= page.getInt(SLOT_COUNT_OFFSET)) {
+				return 0;
+			}
+			int flags = page.get(columnAddress(FLAGS_COLUMN, slot)) & 0xFF;
+			return (flags & PAX_USED) == 0 || (flags & PAX_MOVED) != 0 ? 0 : flags;
+		}
+
+		/**
+		 * Returns the offset of the value of the given slot in the mini-page of the given column.
+		 */
+		private int columnAddress(int column, int slot) {
+			return columnStarts[column] + slot * COLUMN_WIDTHS[column];
+		}
+
+		private int allocatePage() throws PageNotFoundException {
+			int id = storage.initNewPage();
+			ByteBuffer page = pool.pin(id);
+			page.putInt(CAPACITY_OFFSET, capacity);
+			pool.unpin(id, true);
+			return id;
+		}
+
+		private static int varStart(ByteBuffer page) {
+			int start = page.getInt(VAR_START_OFFSET);
+			return start == 0 ? page.capacity() : start;
+		}
+
+		/**
+		 * Returns the bytes available for variable-length data: the free space plus the holes.
+		 */
+		private int unusedVarBytes(ByteBuffer page) {
+			return varStart(page) - fixedEnd + page.getInt(FRAGMENTED_OFFSET);
+		}
+
+		/**
+		 * Returns the bytes a new tuple can use for its variable-length data, 0 if all slots are used.
+		 */
+		private int insertableBytes(ByteBuffer page) {
+			boolean hasSlot = page.getInt(FREE_SLOTS_OFFSET) > 0 || page.getInt(SLOT_COUNT_OFFSET) < capacity;
+			return hasSlot ? unusedVarBytes(page) : 0;
+		}
+
+		private static int takeSlot(ByteBuffer page) {
+			int slotCount = page.getInt(SLOT_COUNT_OFFSET);
+			int freeSlots = page.getInt(FREE_SLOTS_OFFSET);
+			if (freeSlots > 0) {
+				for (int slot = 0; slot < slotCount; slot++) {
+					if ((page.get(PAX_HEADER_SIZE + slot) & PAX_USED) == 0) {
+						page.putInt(FREE_SLOTS_OFFSET, freeSlots - 1);
+						return slot;
+					}
+				}
+			}
+			page.putInt(SLOT_COUNT_OFFSET, slotCount + 1);
+			return slotCount;
+		}
+
+		private void freeSlot(ByteBuffer page, int slot) {
+			releaseSpace(page, slot);
+			page.put(columnAddress(FLAGS_COLUMN, slot), (byte) 0);
+			int slotCount = page.getInt(SLOT_COUNT_OFFSET);
+			int freeSlots = page.getInt(FREE_SLOTS_OFFSET) + 1;
+			while (slotCount > 0 && (page.get(columnAddress(FLAGS_COLUMN, slotCount - 1)) & PAX_USED) == 0) {
+				slotCount--;
+				freeSlots--;
+			}
+			page.putInt(SLOT_COUNT_OFFSET, slotCount);
+			page.putInt(FREE_SLOTS_OFFSET, freeSlots);
+		}
+
+		/**
+		 * Reserves the given number of bytes of variable-length data, compacting the data first if needed.
+		 */
+		private int reserveSpace(ByteBuffer page, int bytes) {
+			if (varStart(page) - fixedEnd < bytes) {
+				compactPage(page);
+			}
+			int offset = varStart(page) - bytes;
+			page.putInt(VAR_START_OFFSET, offset);
+			return offset;
+		}
+
+		/**
+		 * Gives the variable-length data of the given slot back to the page.
+		 */
+		private void releaseSpace(ByteBuffer page, int slot) {
+			int entry = directoryStart + slot * DIRECTORY_ENTRY_SIZE;
+			int offset = page.getChar(entry);
+			int length = page.getChar(entry + 2);
+			if (offset == varStart(page)) {
+				page.putInt(VAR_START_OFFSET, offset + length);
+			} else {
+				page.putInt(FRAGMENTED_OFFSET, page.getInt(FRAGMENTED_OFFSET) + length);
+			}
+			page.putChar(entry, (char) 0);
+			page.putChar(entry + 2, (char) 0);
+		}
+
+		/**
+		 * Moves the variable-length data of all slots to the end of the page, so that all holes become free space.
+		 */
+		private void compactPage(ByteBuffer page) {
+			int slotCount = page.getInt(SLOT_COUNT_OFFSET);
+			long[] tuples = new long[slotCount];
+			int numTuples = 0;
+			for (int slot = 0; slot < slotCount; slot++) {
+				int entry = directoryStart + slot * DIRECTORY_ENTRY_SIZE;
+				if (page.getChar(entry + 2) > 0) {
+					tuples[numTuples++] = ((long) page.getChar(entry) << 32) | slot;
+				}
+			}
+			Arrays.sort(tuples, 0, numTuples);
+			int end = page.capacity();
+			for (int i = numTuples - 1; i >= 0; i--) {
+				int offset = (int) (tuples[i] >>> 32);
+				int entry = directoryStart + (int) tuples[i] * DIRECTORY_ENTRY_SIZE;
+				int length = page.getChar(entry + 2);
+				end -= length;
+				if (end != offset) {
+					page.put(end, page, offset, length);
+					page.putChar(entry, (char) end);
+				}
+			}
+			page.putInt(VAR_START_OFFSET, end);
+			page.putInt(FRAGMENTED_OFFSET, 0);
+		}
+
+	}
+
+	/**
+	 * As we have discussed in the lecture, a tuple identifier consists of 
+	 *    - the id of the page the tuple is stored in 
+	 *    - and the id of the slot within that page
+	 * 
+	 * Where many TupleIdentifiers are kept, they are packed into one long each (see pack and TidList),
+	 * this class wraps such a long for the API.
+	 * 
+	 */
+	static class TupleIdentifier {
+
+		/**
+		 * The number of low bits of a packed TID that hold the slot
+		 */
+		static final int SLOT_BITS = 16;
+		static final int MAX_SLOTS = 1 << SLOT_BITS;
+
+		private final long tid;
+
+		/**
+		 * @param page the id of the page
+		 * @param slot the index of the slot, below MAX_SLOTS
+		 * @throws IllegalArgumentException if the slot is negative or not below MAX_SLOTS
+		 */
+		public TupleIdentifier(int page, int slot) {
+			this.tid = pack(page, slot);
+		}
+
+		/**
+		 * Wraps the given packed TID.
+		 * @param tid a TID created by pack
+		 */
+		public TupleIdentifier(long tid) {
+			this.tid = tid;
+		}
+
+		/**
+		 * Packs page and slot into one long as page << SLOT_BITS | slot. Packed TIDs sort by page, then slot.
+		 * @param page the id of the page
+		 * @param slot the index of the slot, below MAX_SLOTS
+		 * @return the packed TID
+		 */
+		public static long pack(int page, int slot) {
+			if (slot < 0 || slot >= MAX_SLOTS) {
+				throw new IllegalArgumentException("slot " + slot + " does not fit into " + SLOT_BITS + " bits");
+			}
+			return ((long) page << SLOT_BITS) | slot;
+		}
+
+		public static int pageOf(long tid) {
+			return (int) (tid >>> SLOT_BITS);
+		}
+
+		public static int slotOf(long tid) {
+			return (int) tid & (MAX_SLOTS - 1);
+		}
+
+		/**
+		 * Returns this TupleIdentifier packed into a long (see pack).
+		 */
+		public long toLong() {
+			return tid;
+		}
+
+		public int getPage() {
+			return pageOf(tid);
+		}
+
+		public int getSlot() {
+			return slotOf(tid);
+		}
+
+	}
+
+	/**
+	 * A growable list of packed TIDs (see TupleIdentifier.pack) in one long[], 8 bytes per TID instead of
+	 * a TupleIdentifier object and a reference. Sorting the list orders the TIDs by page and slot, so the
+	 * tuples of one page become a run (see pageRunEnd) and sorted lists can be searched and intersected.
+	 *
+	 */
+	private static class TidList {
+
+		private static final int INITIAL_CAPACITY = 16;
+
+		private long[] tids;
+		private int size;
+
+		public TidList() {
+			this(INITIAL_CAPACITY);
+		}
+
+		public TidList(int capacity) {
+			this.tids = new long[Math.max(capacity, 1)];
+		}
+
+		/**
+		 * Creates a list of the given TupleIdentifiers, in the order of the collection.
+		 */
+		public TidList(Collection<TupleIdentifier> tupleIdentifiers) {
+			this(tupleIdentifiers.size());
+			for (TupleIdentifier tid : tupleIdentifiers) {
+				add(tid.toLong());
+			}
+		}
+
+		public void add(long tid) {
+			if (size == tids.length) {
+				tids = Arrays.copyOf(tids, 2 * size);
+			}
+			tids[size++] = tid;
+		}
+
+		public void add(int page, int slot) {
+			add(TupleIdentifier.pack(page, slot));
+		}
+
+		public long get(int index) {
+			Objects.checkIndex(index, size);
+			return tids[index];
+		}
+
+		public void set(int index, long tid) {
+			Objects.checkIndex(index, size);
+			tids[index] = tid;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public boolean isEmpty() {
+			return size == 0;
+		}
+
+		public void clear() {
+			size = 0;
+		}
+
+		/**
+		 * Sorts the TIDs by page and slot.
+		 */
+		public void sort() {
+			Arrays.sort(tids, 0, size);
+		}
+
+		/**
+		 * Removes duplicate TIDs from the sorted list.
+		 */
+		public void removeDuplicates() {
+			if (size == 0) {
+				return;
+			}
+			int distinct = 1;
+			for (int i = 1; i < size; i++) {
+				if (tids[i] != tids[distinct - 1]) {
+					tids[distinct++] = tids[i];
+				}
+			}
+			size = distinct;
+		}
+
+		/**
+		 * Searches the given TID in the sorted list.
+		 * @return the index of the TID, or -(insertion point) - 1 if the list does not contain it
+		 */
+		public int binarySearch(long tid) {
+			return Arrays.binarySearch(tids, 0, size, tid);
+		}
+
+		/**
+		 * Returns true if the sorted list contains the given TID.
+		 */
+		public boolean contains(long tid) {
+			return binarySearch(tid) >= 0;
+		}
+
+		/**
+		 * Returns the end (exclusive) of the run of TIDs on the same page as the TID at the given index.
+		 * In a sorted list this is the index of the first TID of the next page.
+		 */
+		public int pageRunEnd(int from) {
+			int page = TupleIdentifier.pageOf(get(from));
+			int end = from + 1;
+			while (end < size && TupleIdentifier.pageOf(tids[end]) == page) {
+				end++;
+			}
+			return end;
+		}
+
+		/**
+		 * Returns the TIDs contained in both sorted lists, sorted.
+		 */
+		public static TidList intersect(TidList a, TidList b) {
+			TidList result = new TidList(Math.min(a.size, b.size));
+			int i = 0;
+			int j = 0;
+			while (i < a.size && j < b.size) {
+				if (a.tids[i] < b.tids[j]) {
+					i++;
+				} else if (a.tids[i] > b.tids[j]) {
+					j++;
+				} else {
+					result.add(a.tids[i]);
+					i++;
+					j++;
+				}
+			}
+			return result;
+		}
+
+		/**
+		 * Returns the TIDs contained in either sorted list, sorted and without duplicates of TIDs in both.
+		 */
+		public static TidList union(TidList a, TidList b) {
+			TidList result = new TidList(a.size + b.size);
+			int i = 0;
+			int j = 0;
+			while (i < a.size || j < b.size) {
+				if (j == b.size || (i < a.size && a.tids[i] < b.tids[j])) {
+					result.add(a.tids[i++]);
+				} else if (i == a.size || b.tids[j] < a.tids[i]) {
+					result.add(b.tids[j++]);
+				} else {
+					result.add(a.tids[i++]);
+					j++;
+				}
+			}
+			return result;
+		}
+
+		public long[] toArray() {
+			return Arrays.copyOf(tids, size);
+		}
+
+		/**
+		 * Returns a List view of this list: get creates a TupleIdentifier for the packed TID,
+		 * set and add pack the given one. Changes of the view and of this list are visible in both.
+		 */
+		public List<TupleIdentifier> asList() {
+			return new TupleIdentifierList();
+		}
+
+		private class TupleIdentifierList extends AbstractList<TupleIdentifier> implements RandomAccess {
+
+			public TupleIdentifier get(int index) {
+				return new TupleIdentifier(TidList.this.get(index));
+			}
+
+			public TupleIdentifier set(int index, TupleIdentifier tid) {
+				TupleIdentifier previous = get(index);
+				TidList.this.set(index, tid.toLong());
+				return previous;
+			}
+
+			public boolean add(TupleIdentifier tid) {
+				TidList.this.add(tid.toLong());
+				modCount++;
+				return true;
+			}
+
+			public int size() {
+				return size;
+			}
+
+		}
+
+	}
+	
+	/**
+	 * A B+-tree on o_orderkey that maps every key to the TupleIdentifier of its order. Its nodes are pages of
+	 * the same block storage as the table, read and written through the same buffer pool, so a lookup reads one
+	 * page per level of the tree. The leaves are linked from left to right for range scans.
+	 * 
+	 * The page layout of a node:
+	 * - The header of HEADER_SIZE bytes, like a slotted page
+	 *   - INDEX_PAGE | the level of the node (0 for a leaf) in place of the slot count, so the table skips the page
+	 *   - The number of keys
+	 *   - In a leaf: the id of the next leaf to the right, NO_PAGE for the last leaf
+	 *   - 4 unused bytes, and the page LSN, which stays 0 as the index is not logged
+	 * - In a leaf: the keys (int) in ascending order, then the packed TIDs (long, see TupleIdentifier.toLong) in the same order
+	 * - In an inner node: the keys (int) in ascending order, then the child page ids (int), one more than keys;
+	 *   the child at position i holds the keys from key i - 1 (inclusive) to key i (exclusive)
+	 * 
+	 * The root page never changes: when the root splits, both halves move to new pages and the root becomes their parent.
+	 * Deletes do not merge nodes, build packs them again. The storage cannot free pages, so build reuses the pages
+	 * of an old tree it is given, and keeps the ones it does not need for later splits.
+	 * The whole tree has one latch: lookups and range scans share it, changes take it exclusively.
+	 * The index is not written to the WriteAheadLog, after a crash it has to be built again.
+	 *
+	 */
+	private static class OrderKeyIndex {
+
+		/**
+		 * Offsets of the fields in the node header
+		 */
+		static final int KEY_COUNT_OFFSET = INT_SIZE;
+		static final int NEXT_LEAF_OFFSET = INT_SIZE * 2;
+		static final int NO_PAGE = -1;
+
+		private final BufferPool pool;
+		private final int rootPage;
+		private final int leafCapacity;
+		private final int innerCapacity;
+		private final StampedLock latch = new StampedLock();
+
+		/**
+		 * Pages of an old index that new nodes take before new pages are allocated (see build)
+		 */
+		private final ArrayDeque<Integer> sparePages = new ArrayDeque<Integer>();
+
+		/**
+		 * Creates an empty index, its root is a new leaf page.
+		 * @param pool the buffer pool through which all pages are accessed
+		 * @throws PageNotFoundException
+		 */
+		public OrderKeyIndex(BufferPool pool) throws PageNotFoundException {
+			this(pool, newNode(pool, 0, new ArrayDeque<Integer>()));
+		}
+
+		/**
+		 * Opens the index with the given root page, e.g. in a reopened MappedBlockStorage.
+		 * @param pool the buffer pool through which all pages are accessed
+		 * @param rootPage the root page, as returned by getRootPage
+		 * @throws PageNotFoundException
+		 */
+		public OrderKeyIndex(BufferPool pool, int rootPage) throws PageNotFoundException {
+			this.pool = pool;
+			this.rootPage = rootPage;
+			int pageSize = pool.getStorage().getPageSize();
+			this.leafCapacity = (pageSize - HEADER_SIZE) / (INT_SIZE + LONG_SIZE);
+			this.innerCapacity = (pageSize - HEADER_SIZE - INT_SIZE) / (2 * INT_SIZE);
+			ByteBuffer root = pool.pin(rootPage);
+			try {
+				if (!isIndexPage(root)) {
+					throw new IllegalArgumentException("page " + rootPage + " is not a page of an index");
+				}
+			} finally {
+				pool.unpin(rootPage, false);
+			}
+		}
+
+		/**
+		 * Builds an index from the given keys bottom-up: the leaves are filled one after the other up to the fill
+		 * factor, then each level of inner nodes from the first keys of the level below. Every page is written once.
+		 * @param pool the buffer pool through which all pages are accessed
+		 * @param keys the keys in ascending order, without duplicates
+		 * @param tids the packed TIDs of the keys, at the same positions
+		 * @param fillFactor the fraction (between 0 and 1) of each node that is filled
+		 * @param sparePages pages that are not used any more, e.g. those of an index that is replaced; they are
+		 *        overwritten and used for nodes before new pages are allocated
+		 * @return the new index
+		 * @throws PageNotFoundException
+		 */
+		public static OrderKeyIndex build(BufferPool pool, int[] keys, TidList tids, double fillFactor,
+				Collection<Integer> sparePages) throws PageNotFoundException {
+			if (fillFactor <= 0 || fillFactor > 1) {
+				throw new IllegalArgumentException("fill factor has to be in (0, 1], got " + fillFactor);
+			}
+			if (keys.length != tids.size()) {
+				throw new IllegalArgumentException(keys.length + " keys but " + tids.size() + " TIDs");
+			}
+			for (int i = 1; i < keys.length; i++) {
+				if (keys[i - 1] >= keys[i]) {
+					throw new IllegalArgumentException("keys have to be ascending without duplicates, got " + keys[i]
+							+ " after " + keys[i - 1]);
+				}
+			}
+			ArrayDeque<Integer> spare = new ArrayDeque<Integer>(sparePages);
+			OrderKeyIndex index = new OrderKeyIndex(pool, newNode(pool, 0, spare));
+			index.sparePages.addAll(spare);
+			index.load(keys, tids, fillFactor);
+			return index;
+		}
+
+		/**
+		 * Returns the id of the root page, which never changes.
+		 */
+		public int getRootPage() {
+			return rootPage;
+		}
+
+		/**
+		 * Returns the number of levels of the tree, 1 if the root is a leaf.
+		 */
+		public int getHeight() throws PageNotFoundException {
+			long stamp = latch.readLock();
+			try {
+				return height();
+			} finally {
+				latch.unlockRead(stamp);
+			}
+		}
+
+		/**
+		 * Returns the TupleIdentifier stored for the given key.
+		 * @param key the o_orderkey
+		 * @return the TupleIdentifier, null if the key is not in the index
+		 * @throws PageNotFoundException
+		 */
+		public TupleIdentifier lookup(int key) throws PageNotFoundException {
+			long stamp = latch.readLock();
+			try {
+				int pgId = findLeaf(key, null);
+				ByteBuffer leaf = pool.pin(pgId);
+				try {
+					int position = search(leaf, key);
+					return position < 0 ? null : new TupleIdentifier(tid(leaf, position));
+				} finally {
+					pool.unpin(pgId, false);
+				}
+			} finally {
+				latch.unlockRead(stamp);
+			}
+		}
+
+		/**
+		 * Returns the packed TIDs of the keys between the given keys (both inclusive), in the order of the keys.
+		 * Only the path to the first key is searched, then the leaves are followed along their links.
+		 * @param from the smallest key
+		 * @param to the largest key
+		 * @return the packed TIDs, e.g. for getOrders
+		 * @throws PageNotFoundException
+		 */
+		public TidList range(int from, int to) throws PageNotFoundException {
+			TidList tids = new TidList();
+			long stamp = latch.readLock();
+			try {
+				int pgId = from > to ? NO_PAGE : findLeaf(from, null);
+				while (pgId != NO_PAGE) {
+					ByteBuffer leaf = pool.pin(pgId);
+					int next;
+					try {
+						int count = leaf.getInt(KEY_COUNT_OFFSET);
+						int position = search(leaf, from);
+						for (position = position < 0 ? -position - 1 : position; position < count; position++) {
+							if (key(leaf, position) > to) {
+								return tids;
+							}
+							tids.add(tid(leaf, position));
+						}
+						next = leaf.getInt(NEXT_LEAF_OFFSET);
+					} finally {
+						pool.unpin(pgId, false);
+					}
+					pgId = next;
+				}
+				return tids;
+			} finally {
+				latch.unlockRead(stamp);
+			}
+		}
+
+		/**
+		 * Adds the key with the given TupleIdentifier. A full leaf is split into two halves, the first key of the
+		 * right half goes up into the parent, which is split the same way if it is full.
+		 * @param key the o_orderkey
+		 * @param tid the TupleIdentifier of the order
+		 * @return false if the key is already in the index (which then stays unchanged)
+		 * @throws PageNotFoundException
+		 */
+		public boolean insert(int key, TupleIdentifier tid) throws PageNotFoundException {
+			long stamp = latch.writeLock();
+			try {
+				return add(key, tid.toLong());
+			} finally {
+				latch.unlockWrite(stamp);
+			}
+		}
+
+		/**
+		 * Removes the key from the index. The leaf is not merged with its neighbours, even if it becomes empty.
+		 * @param key the o_orderkey
+		 * @return false if the key was not in the index
+		 * @throws PageNotFoundException
+		 */
+		public boolean delete(int key) throws PageNotFoundException {
+			long stamp = latch.writeLock();
+			try {
+				return remove(key);
+			} finally {
+				latch.unlockWrite(stamp);
+			}
+		}
+
+		/**
+		 * Moves a TupleIdentifier from its old key to a new one, holding the latch for both steps:
+		 * the new key is added first, so nobody else can take it, and only then the old one is removed.
+		 * @param oldKey the o_orderkey the TupleIdentifier is stored under
+		 * @param newKey the new o_orderkey
+		 * @param tid the TupleIdentifier of the order
+		 * @return false if the new key is already in the index (which then stays unchanged)
+		 * @throws PageNotFoundException
+		 */
+		public boolean replace(int oldKey, int newKey, TupleIdentifier tid) throws PageNotFoundException {
+			long stamp = latch.writeLock();
+			try {
+				if (!add(newKey, tid.toLong())) {
+					return false;
+				}
+				remove(oldKey);
+				return true;
+			} finally {
+				latch.unlockWrite(stamp);
+			}
+		}
+
+		/**
+		 * Adds the key with the given packed TID (see insert), the latch has to be held exclusively.
+		 */
+		private boolean add(int key, long value) throws PageNotFoundException {
+			int[] path = new int[height()];
+			findLeaf(key, path);
+			for (int level = 0; level < path.length; level++) {
+				int pgId = path[level];
+				ByteBuffer page = pool.pin(pgId);
+				boolean changed = false;
+				try {
+					int count = page.getInt(KEY_COUNT_OFFSET);
+					int position = search(page, key);
+					if (position >= 0) {
+						return false;
+					}
+					position = -position - 1;
+					changed = true;
+					if (count < (level == 0 ? leafCapacity : innerCapacity)) {
+						insertEntry(page, level, count, position, key, value);
+						return true;
+					}
+					long separator = split(pgId, page, level, count, position, key, value);
+					key = (int) (separator >> 32);
+					value = (int) separator;
+				} finally {
+					pool.unpin(pgId, changed);
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Removes the key (see delete), the latch has to be held exclusively.
+		 */
+		private boolean remove(int key) throws PageNotFoundException {
+			int pgId = findLeaf(key, null);
+			ByteBuffer leaf = pool.pin(pgId);
+			boolean changed = false;
+			try {
+				int position = search(leaf, key);
+				if (position < 0) {
+					return false;
+				}
+				int count = leaf.getInt(KEY_COUNT_OFFSET);
+				move(leaf, keyOffset(position + 1), keyOffset(position), (count - position - 1) * INT_SIZE);
+				move(leaf, tidOffset(position + 1), tidOffset(position), (count - position - 1) * LONG_SIZE);
+				leaf.putInt(KEY_COUNT_OFFSET, count - 1);
+				changed = true;
+				return true;
+			} finally {
+				pool.unpin(pgId, changed);
+			}
+		}
+
+		/**
+		 * Returns the number of levels, the latch has to be held.
+		 */
+		private int height() throws PageNotFoundException {
+			ByteBuffer root = pool.pin(rootPage);
+			try {
+				return level(root) + 1;
+			} finally {
+				pool.unpin(rootPage, false);
+			}
+		}
+
+		/**
+		 * Descends from the root to the leaf that holds (or would hold) the key.
+		 * @param path if not null, receives the page of every level, indexed by level
+		 * @return the id of the leaf
+		 */
+		private int findLeaf(int key, int[] path) throws PageNotFoundException {
+			int pgId = rootPage;
+			while (true) {
+				ByteBuffer page = pool.pin(pgId);
+				int level;
+				int child;
+				try {
+					level = level(page);
+					int position = search(page, key);
+					child = level == 0 ? NO_PAGE : child(page, position < 0 ? -position - 1 : position + 1);
+				} finally {
+					pool.unpin(pgId, false);
+				}
+				if (path != null) {
+					path[level] = pgId;
+				}
+				if (level == 0) {
+					return pgId;
+				}
+				pgId = child;
+			}
+		}
+
+		/**
+		 * Writes the sorted keys into new leaves and builds the inner nodes above them (see build).
+		 * The last node of every level is the root, which has to be an empty leaf so far.
+		 */
+		private void load(int[] keys, TidList tids, double fillFactor) throws PageNotFoundException {
+			// The nodes of the current level and the smallest key below each of them
+			int keysPerLeaf = (int) Math.max(1, fillFactor * leafCapacity);
+			int nodes = Math.max(1, (keys.length + keysPerLeaf - 1) / keysPerLeaf);
+			int[] pages = new int[nodes];
+			int[] firstKeys = new int[nodes];
+			for (int node = 0; node < nodes; node++) {
+				pages[node] = nodes == 1 ? rootPage : newNode(pool, 0, sparePages);
+			}
+			for (int node = 0; node < nodes; node++) {
+				int from = (int) ((long) node * keys.length / nodes);
+				int to = (int) ((long) (node + 1) * keys.length / nodes);
+				ByteBuffer leaf = pool.pin(pages[node]);
+				try {
+					for (int i = from; i < to; i++) {
+						leaf.putInt(keyOffset(i - from), keys[i]);
+						leaf.putLong(tidOffset(i - from), tids.get(i));
+					}
+					leaf.putInt(KEY_COUNT_OFFSET, to - from);
+					leaf.putInt(NEXT_LEAF_OFFSET, node + 1 < nodes ? pages[node + 1] : NO_PAGE);
+				} finally {
+					pool.unpin(pages[node], true);
+				}
+				firstKeys[node] = from < to ? keys[from] : 0;
+			}
+
+			int childrenPerNode = Math.max(2, (int) (fillFactor * (innerCapacity + 1)));
+			for (int level = 1; pages.length > 1; level++) {
+				int[] children = pages;
+				int[] childKeys = firstKeys;
+				nodes = (children.length + childrenPerNode - 1) / childrenPerNode;
+				pages = new int[nodes];
+				firstKeys = new int[nodes];
+				for (int node = 0; node < nodes; node++) {
+					int from = (int) ((long) node * children.length / nodes);
+					int to = (int) ((long) (node + 1) * children.length / nodes);
+					pages[node] = nodes == 1 ? rootPage : newNode(pool, level, sparePages);
+					ByteBuffer page = pool.pin(pages[node]);
+					try {
+						page.putInt(SLOT_COUNT_OFFSET, INDEX_PAGE | level);
+						for (int i = from; i < to; i++) {
+							if (i > from) {
+								page.putInt(keyOffset(i - from - 1), childKeys[i]);
+							}
+							page.putInt(childOffset(i - from), children[i]);
+						}
+						page.putInt(KEY_COUNT_OFFSET, to - from - 1);
+					} finally {
+						pool.unpin(pages[node], true);
+					}
+					firstKeys[node] = childKeys[from];
+				}
+			}
+		}
+
+		/**
+		 * Inserts the key at the given position of a node that is not full. In a leaf the value is the packed TID,
+		 * in an inner node the id of the child right of the key.
+		 */
+		private void insertEntry(ByteBuffer page, int level, int count, int position, int key, long value) {
+			move(page, keyOffset(position), keyOffset(position + 1), (count - position) * INT_SIZE);
+			page.putInt(keyOffset(position), key);
+			if (level == 0) {
+				move(page, tidOffset(position), tidOffset(position + 1), (count - position) * LONG_SIZE);
+				page.putLong(tidOffset(position), value);
+			} else {
+				move(page, childOffset(position + 1), childOffset(position + 2), (count - position) * INT_SIZE);
+				page.putInt(childOffset(position + 1), (int) value);
+			}
+			page.putInt(KEY_COUNT_OFFSET, count + 1);
+		}
+
+		/**
+		 * Splits the full node while inserting the key (see insertEntry): the lower half of the entries stays,
+		 * the upper half moves to a new node. A split root keeps its page, both halves move to new pages.
+		 * @return the key and page id for the parent: the smallest key of the new node in the upper 32 bits, the
+		 *         new node in the lower 32 bits; for the root, the key the caller has to insert is already inserted
+		 */
+		private long split(int pgId, ByteBuffer page, int level, int count, int position, int key, long value)
+				throws PageNotFoundException {
+			// All keys and values including the new one
+			int[] keys = new int[count + 1];
+			long[] values = new long[count + 2];
+			for (int i = 0, from = 0; i <= count; i++) {
+				keys[i] = i == position ? key : key(page, from++);
+			}
+			if (level == 0) {
+				for (int i = 0, from = 0; i <= count; i++) {
+					values[i] = i == position ? value : tid(page, from++);
+				}
+			} else {
+				for (int i = 0, from = 0; i <= count + 1; i++) {
+					values[i] = i == position + 1 ? value : child(page, from++);
+				}
+			}
+
+			// A leaf keeps the separator as its smallest key in the right half, an inner node moves it up
+			int leftCount = (count + 1) / 2;
+			int rightFrom = level == 0 ? leftCount : leftCount + 1;
+			int right = newNode(pool, level, sparePages);
+			int left = pgId;
+			if (pgId == rootPage) {
+				left = newNode(pool, level, sparePages);
+			}
+			int next = page.getInt(NEXT_LEAF_OFFSET);
+			writeNode(left, level, keys, values, 0, leftCount, right);
+			writeNode(right, level, keys, values, rightFrom, count + 1, next);
+			if (pgId == rootPage) {
+				page.putInt(SLOT_COUNT_OFFSET, INDEX_PAGE | (level + 1));
+				page.putInt(KEY_COUNT_OFFSET, 1);
+				page.putInt(NEXT_LEAF_OFFSET, NO_PAGE);
+				page.putInt(keyOffset(0), keys[leftCount]);
+				page.putInt(childOffset(0), left);
+				page.putInt(childOffset(1), right);
+			}
+			return ((long) keys[leftCount] << 32) | right;
+		}
+
+		/**
+		 * Writes the keys from (inclusive) to end (exclusive) into the given node with the values at the same positions
+		 * (for an inner node the children from to end, inclusive).
+		 */
+		private void writeNode(int pgId, int level, int[] keys, long[] values, int from, int end, int nextLeaf)
+				throws PageNotFoundException {
+			ByteBuffer page = pool.pin(pgId);
+			try {
+				for (int i = from; i < end; i++) {
+					page.putInt(keyOffset(i - from), keys[i]);
+					if (level == 0) {
+						page.putLong(tidOffset(i - from), values[i]);
+					} else {
+						page.putInt(childOffset(i - from), (int) values[i]);
+					}
+				}
+				if (level > 0) {
+					page.putInt(childOffset(end - from), (int) values[end]);
+				}
+				page.putInt(KEY_COUNT_OFFSET, end - from);
+				page.putInt(NEXT_LEAF_OFFSET, level == 0 ? nextLeaf : NO_PAGE);
+			} finally {
+				pool.unpin(pgId, true);
+			}
+		}
+
+		/**
+		 * Binary search for the key in the keys of the node, like Arrays.binarySearch.
+		 * @return the position of the key, or (-(insertion point) - 1)
+		 */
+		private static int search(ByteBuffer page, int key) {
+			int low = 0;
+			int high = page.getInt(KEY_COUNT_OFFSET) - 1;
+			while (low <= high) {
+				int middle = (low + high) >>> 1;
+				int middleKey = key(page, middle);
+				if (middleKey < key) {
+					low = middle + 1;
+				} else if (middleKey > key) {
+					high = middle - 1;
+				} else {
+					return middle;
+				}
+			}
+			return -(low + 1);
+		}
+
+		/**
+		 * Creates a node of the given level without keys, on a spare page if there is one, otherwise on a new page.
+		 */
+		private static int newNode(BufferPool pool, int level, ArrayDeque<Integer> sparePages) throws PageNotFoundException {
+			int pgId = sparePages.isEmpty() ? pool.getStorage().initNewPage() : sparePages.pop();
+			ByteBuffer page = pool.pin(pgId);
+			try {
+				page.putInt(SLOT_COUNT_OFFSET, INDEX_PAGE | level);
+				page.putInt(KEY_COUNT_OFFSET, 0);
+				page.putInt(NEXT_LEAF_OFFSET, NO_PAGE);
+			} finally {
+				pool.unpin(pgId, true);
+			}
+			return pgId;
+		}
+
+		private static int level(ByteBuffer page) {
+			return page.getInt(SLOT_COUNT_OFFSET) & ~INDEX_PAGE;
+		}
+
+		private static int keyOffset(int position) {
+			return HEADER_SIZE + position * INT_SIZE;
+		}
+
+		private static int key(ByteBuffer page, int position) {
+			return page.getInt(keyOffset(position));
+		}
+
+		private int tidOffset(int position) {
+			return HEADER_SIZE + leafCapacity * INT_SIZE + position * LONG_SIZE;
+		}
+
+		private long tid(ByteBuffer page, int position) {
+			return page.getLong(tidOffset(position));
+		}
+
+		private int childOffset(int position) {
+			return HEADER_SIZE + innerCapacity * INT_SIZE + position * INT_SIZE;
+		}
+
+		private int child(ByteBuffer page, int position) {
+			return page.getInt(childOffset(position));
+		}
+
+		/**
+		 * Moves the given bytes within the page (the ranges may overlap).
+		 */
+		private static void move(ByteBuffer page, int from, int to, int length) {
+			page.put(to, page, from, length);
+		}
+
+	}
+
+	/**
+	 * A cursor over the orders of a range of pages, in page and slot order. The matching orders of a page are
+	 * decoded while the page is latched (see scanPage) and then returned one by one, so a page is latched only
+	 * once and never while the caller processes an order. While the cursor works on a page, a background task
+	 * reads the next READ_AHEAD_PAGES pages into the buffer pool.
+	 * Pages the cursor has not reached yet reflect concurrent changes, pages it has passed do not.
+	 *
+	 */
+	private class TableScan implements Iterator<Order> {
+
+		private final int endPage;
+		private final OrderPredicate predicate;
+
+		/**
+		 * The next page to scan and the first page that was not yet handed to read-ahead
+		 */
+		private int nextPage;
+		private int readAheadPage;
+
+		/**
+		 * The matching orders of the current page and their TupleIdentifiers
+		 */
+		private final ArrayList<Order> orders;
+		private final ArrayList<TupleIdentifier> tids;
+		private int position;
+		private TupleIdentifier current;
+
+		/**
+		 * Creates a cursor over the pages fromPage (inclusive) to endPage (exclusive).
+		 */
+		TableScan(int fromPage, int endPage, OrderPredicate predicate) {
+			this.nextPage = fromPage;
+			this.readAheadPage = fromPage;
+			this.endPage = endPage;
+			this.predicate = predicate;
+			this.orders = new ArrayList<Order>();
+			this.tids = new ArrayList<TupleIdentifier>();
+		}
+
+		public boolean hasNext() {
+			while (position == orders.size()) {
+				if (nextPage >= endPage) {
+					return false;
+				}
+				readAhead();
+				orders.clear();
+				tids.clear();
+				position = 0;
+				try {
+					scanPage(nextPage++, predicate, (pageId, slot, buffer, offset) -> {
+						orders.add(new Order(buffer, offset));
+						tids.add(new TupleIdentifier(pageId, slot));
+					});
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				} catch (PageNotFoundException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+			return true;
+		}
+
+		public Order next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			current = tids.get(position);
+			return orders.get(position++);
+		}
+
+		/**
+		 * Returns the TupleIdentifier of the order last returned by next.
+		 */
+		public TupleIdentifier getTupleIdentifier() {
+			return current;
+		}
+
+		/**
+		 * Starts reading the next pages in the background, once the pages read ahead before are half used up.
+		 */
+		private void readAhead() {
+			if (readAheadPage >= endPage || readAheadPage - nextPage > READ_AHEAD_PAGES / 2) {
+				return;
+			}
+			int from = Math.max(readAheadPage, nextPage + 1);
+			int to = Math.min(nextPage + 1 + READ_AHEAD_PAGES, endPage);
+			readAheadPage = to;
+			READ_AHEAD.execute(() -> {
+				for (int pgId = from; pgId < to; pgId++) {
+					pool.prefetch(pgId);
+				}
+			});
+		}
+
+	}
+
+	/**
+	 * Splits the page ids from (inclusive) to end (exclusive) in halves, down to ranges of MIN_SPLIT_PAGES
+	 * pages, so that the fork-join pool can hand each range to another thread.
+	 *
+	 */
+	private static class PageRangeSpliterator implements Spliterator.OfInt {
+
+		/**
+		 * Ranges of fewer pages are not split any more
+		 */
+		static final int MIN_SPLIT_PAGES = 64;
+
+		private int from;
+		private final int end;
+
+		public PageRangeSpliterator(int from, int end) {
+			this.from = from;
+			this.end = end;
+		}
+
+		public boolean tryAdvance(IntConsumer action) {
+			if (from >= end) {
+				return false;
+			}
+			action.accept(from++);
+			return true;
+		}
+
+		public void forEachRemaining(IntConsumer action) {
+			while (from < end) {
+				action.accept(from++);
+			}
+		}
+
+		public Spliterator.OfInt trySplit() {
+			if (end - from < 2 * MIN_SPLIT_PAGES) {
+				return null;
+			}
+			int middle = from + (end - from) / 2;
+			PageRangeSpliterator prefix = new PageRangeSpliterator(from, middle);
+			from = middle;
+			return prefix;
+		}
+
+		public long estimateSize() {
+			return end - from;
+		}
+
+		public int characteristics() {
+			return ORDERED | DISTINCT | SORTED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+		}
+
+		public Comparator<? super Integer> getComparator() {
+			return null;
+		}
+
+	}
+
+	/**
+	 * The partial result of an aggregate, computed by one thread over some tuples (see aggregate).
+	 *
+	 */
+	private interface PartialAggregate<A extends PartialAggregate<A>> extends TupleVisitor {
+
+		/**
+		 * Adds the other partial result, which covers other tuples, to this one.
+		 * @param other the partial result to add
+		 */
+		void merge(A other);
+
+	}
+
+	/**
+	 * SUM(o_totalprice) GROUP BY o_orderstatus, read from the encoded orders without decoding them.
+	 *
+	 */
+	private static class StatusPriceSums implements PartialAggregate<StatusPriceSums> {
+
+		/**
+		 * The sums and counts of the ASCII order statuses, indexed by the status
+		 */
+		private final double[] sums = new double[128];
+		private final long[] counts = new long[128];
+
+		/**
+		 * The sums of the other order statuses, which are rare
+		 */
+		private final Map<Character, Double> overflow = new HashMap<Character, Double>();
+
+		public void visit(int pageId, int slot, ByteBuffer buffer, int offset) {
+			add(Order.readOrderStatus(buffer, offset), Order.readTotalPrice(buffer, offset));
+		}
+
+		public void add(char status, double totalPrice) {
+			if (status < sums.length) {
+				sums[status] += totalPrice;
+				counts[status]++;
+			} else {
+				overflow.merge(status, totalPrice, Double::sum);
+			}
+		}
+
+		public void merge(StatusPriceSums other) {
+			for (int status = 0; status < sums.length; status++) {
+				sums[status] += other.sums[status];
+				counts[status] += other.counts[status];
+			}
+			for (Map.Entry<Character, Double> entry : other.overflow.entrySet()) {
+				overflow.merge(entry.getKey(), entry.getValue(), Double::sum);
+			}
+		}
+
+		/**
+		 * Returns the sums of the order statuses that occurred, sorted by order status.
+		 */
+		public Map<Character, Double> toMap() {
+			Map<Character, Double> result = new TreeMap<Character, Double>();
+			for (int status = 0; status < sums.length; status++) {
+				if (counts[status] > 0) {
+					result.put((char) status, sums[status]);
+				}
+			}
+			result.putAll(overflow);
+			return result;
+		}
+
+	}
+
+	/**
+	 * A condition on orders that is evaluated on their encoded bytes (see Order.writeTo), so that table
+	 * scans can reject an order before it is decoded into an Order object, and whole pages by their zone map (see mayMatch).
+	 *
+	 */
+	interface OrderPredicate {
+
+		/**
+		 * Tests the order encoded in the buffer at the given offset.
+		 * @param buffer the buffer holding the order, e.g. a page; only read with absolute gets
+		 * @param offset the offset of the encoded order
+		 * @return true if the order matches
+		 */
+		boolean test(ByteBuffer buffer, int offset);
+
+		/**
+		 * Returns false if no order of the given page can match, judged by the zone map of the page alone.
+		 * @param zones the zone maps of the table
+		 * @param pageId the id of the page
+		 * @return false if the page can be skipped, true if it has to be read
+		 */
+		default boolean mayMatch(ZoneMap zones, int pageId) {
+			return true;
+		}
+
+		/**
+		 * Returns a predicate that matches if this and the other predicate match.
+		 */
+		default OrderPredicate and(OrderPredicate other) {
+			OrderPredicate first = this;
+			return new OrderPredicate() {
+				public boolean test(ByteBuffer buffer, int offset) {
+					return first.test(buffer, offset) && other.test(buffer, offset);
+				}
+
+				public boolean mayMatch(ZoneMap zones, int pageId) {
+					return first.mayMatch(zones, pageId) && other.mayMatch(zones, pageId);
+				}
+			};
+		}
+
+		/**
+		 * Returns a predicate that matches every order.
+		 */
+		static OrderPredicate all() {
+			return (buffer, offset) -> true;
+		}
+
+		/**
+		 * Returns a predicate on o_orderdate between the given dates (yyyy-mm-dd), both inclusive.
+		 * Dates are compared as days; only dates that are not stored in compact form are compared as Strings.
+		 */
+		static OrderPredicate orderDateBetween(String from, String to) {
+			int fromDay = Order.parseDate(from);
+			int toDay = Order.parseDate(to);
+			return new OrderPredicate() {
+				public boolean test(ByteBuffer buffer, int offset) {
+					int day = Order.readOrderDay(buffer, offset);
+					if (day == Order.NO_VALUE || fromDay == Order.NO_VALUE || toDay == Order.NO_VALUE) {
+						String date = Order.readOrderDate(buffer, offset);
+						return date.compareTo(from) >= 0 && date.compareTo(to) <= 0;
+					}
+					return day >= fromDay && day <= toDay;
+				}
+
+				public boolean mayMatch(ZoneMap zones, int pageId) {
+					return fromDay == Order.NO_VALUE || toDay == Order.NO_VALUE || zones.mayContainOrderDays(pageId, fromDay, toDay);
+				}
+			};
+		}
+
+		/**
+		 * Returns a predicate on o_totalprice between the given prices, both inclusive.
+		 */
+		static OrderPredicate totalPriceBetween(double min, double max) {
+			return new OrderPredicate() {
+				public boolean test(ByteBuffer buffer, int offset) {
+					double price = Order.readTotalPrice(buffer, offset);
+					return price >= min && price <= max;
+				}
+
+				public boolean mayMatch(ZoneMap zones, int pageId) {
+					return zones.mayContainTotalPrices(pageId, min, max);
+				}
+			};
+		}
+
+		/**
+		 * Returns a predicate on o_orderkey between the given keys, both inclusive.
+		 */
+		static OrderPredicate orderKeyBetween(int min, int max) {
+			return new OrderPredicate() {
+				public boolean test(ByteBuffer buffer, int offset) {
+					int key = Order.readOrderKey(buffer, offset);
+					return key >= min && key <= max;
+				}
+
+				public boolean mayMatch(ZoneMap zones, int pageId) {
+					return zones.mayContainOrderKeys(pageId, min, max);
+				}
+			};
+		}
+
+	}
+
+	/**
+	 * Receives the tuples found by scanPage.
+	 *
+	 */
+	private interface TupleVisitor {
+
+		/**
+		 * Called for every matching tuple, while its page is pinned and read-latched.
+		 * @param pageId the page of the TupleIdentifier of the tuple
+		 * @param slot the slot of the TupleIdentifier of the tuple
+		 * @param buffer the buffer holding the encoded order, only valid during the call
+		 * @param offset the offset of the encoded order
+		 * @throws IOException
+		 */
+		void visit(int pageId, int slot, ByteBuffer buffer, int offset) throws IOException;
+
+	}
+
+	/**
+	 * A simple Exception class that indicates that a requested page was not found in the BlockStorage
+	 * 
+	 */
+	private static class PageNotFoundException extends Exception {
+
+		public PageNotFoundException() {
+			super();
+		}
+
+		public PageNotFoundException(String s) {
+			super(s);
+		}
+
+	}
+	
+	/**
+	 * A parser for .tbl files of the TPC-H table orders (one |-separated order per line). The file is memory-mapped
+	 * and parsed byte by byte: delimiters are found and numbers are parsed directly in the bytes, only the
+	 * String attributes of an Order are created. The file is split into chunks of about CHUNK_BYTES bytes that end
+	 * at a line end, so the chunks can be parsed in parallel.
+	 *
+	 */
+	private static class OrderTblParser implements Closeable {
+
+		/**
+		 * The size a chunk has at least (unless it is the last one), before it is extended to the next line end
+		 */
+		static final int CHUNK_BYTES = 4 * 1024 * 1024;
+
+		/**
+		 * The number of chunks iterator() parses ahead of the one that is consumed
+		 */
+		static final int PARSE_AHEAD_CHUNKS = 2 * Runtime.getRuntime().availableProcessors();
+
+		/**
+		 * The number of attributes of an order
+		 */
+		static final int NUM_FIELDS = 9;
+
+		private final FileChannel channel;
+
+		/**
+		 * Chunk i covers the bytes chunkStarts[i] (inclusive) to chunkStarts[i + 1] (exclusive)
+		 */
+		private final long[] chunkStarts;
+
+		/**
+		 * Opens the given file and splits it into chunks.
+		 * @param file the .tbl file
+		 * @throws IOException
+		 */
+		public OrderTblParser(Path file) throws IOException {
+			this.channel = FileChannel.open(file, StandardOpenOption.READ);
+			long size = channel.size();
+			ArrayList<Long> starts = new ArrayList<Long>();
+			long start = 0;
+			while (start < size) {
+				starts.add(start);
+				start = nextLineStart(Math.min(start + CHUNK_BYTES, size), size);
+			}
+			starts.add(size);
+			this.chunkStarts = new long[starts.size()];
+			for (int i = 0; i < chunkStarts.length; i++) {
+				chunkStarts[i] = starts.get(i);
+			}
+		}
+
+		/**
+		 * Returns the number of chunks of the file.
+		 */
+		public int getNumChunks() {
+			return chunkStarts.length - 1;
+		}
+
+		/**
+		 * Returns all orders of the file as a stream, in the order of the file.
+		 * @param parallel true to parse the chunks of the file in parallel
+		 * @return the stream of orders
+		 */
+		public Stream<Order> orders(boolean parallel) {
+			return (parallel ? IntStream.range(0, getNumChunks()).parallel() : IntStream.range(0, getNumChunks()))
+					.mapToObj(this::parseChunk).flatMap(List::stream);
+		}
+
+		/**
+		 * Returns an iterator over all orders of the file, in the order of the file. While the orders of one chunk
+		 * are consumed, the next PARSE_AHEAD_CHUNKS chunks are parsed in the fork-join pool, so a single consumer
+		 * (like a bulk load) gets orders as fast as all cores together can parse them.
+		 * @return the iterator
+		 */
+		public Iterator<Order> iterator() {
+			return new Iterator<Order>() {
+
+				private final ArrayDeque<CompletableFuture<List<Order>>> pending = new ArrayDeque<CompletableFuture<List<Order>>>();
+				private int nextChunk = 0;
+				private Iterator<Order> current = Collections.emptyIterator();
+
+				public boolean hasNext() {
+					while (!current.hasNext()) {
+						while (nextChunk < getNumChunks() && pending.size() < PARSE_AHEAD_CHUNKS) {
+							int chunk = nextChunk++;
+							pending.add(CompletableFuture.supplyAsync(() -> parseChunk(chunk)));
+						}
+						if (pending.isEmpty()) {
+							return false;
+						}
+						current = pending.poll().join().iterator();
+					}
+					return true;
+				}
+
+				public Order next() {
+					if (!hasNext()) {
+						throw new NoSuchElementException();
+					}
+					return current.next();
+				}
+
+			};
+		}
+
+		public void close() throws IOException {
+			channel.close();
+		}
+
+		/**
+		 * Maps and parses the chunk with the given index. The mapped chunk is copied into one array first,
+		 * which the JIT scans much faster than the mapped buffer itself.
+		 * @return the orders of the chunk, in the order of the file
+		 */
+		private List<Order> parseChunk(int chunk) {
+			byte[] bytes = new byte[(int) (chunkStarts[chunk + 1] - chunkStarts[chunk])];
+			try {
+				channel.map(FileChannel.MapMode.READ_ONLY, chunkStarts[chunk], bytes.length).get(0, bytes);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			List<Order> orders = new ArrayList<Order>();
+			int lineStart = 0;
+			while (lineStart < bytes.length) {
+				int lineEnd = lineStart;
+				while (lineEnd < bytes.length && bytes[lineEnd] != '\n') {
+					lineEnd++;
+				}
+				int contentEnd = lineEnd > lineStart && bytes[lineEnd - 1] == '\r' ? lineEnd - 1 : lineEnd;
+				if (contentEnd > lineStart) {
+					Order o = new Order();
+					parseLine(bytes, lineStart, contentEnd, o);
+					orders.add(o);
+				}
+				lineStart = lineEnd + 1;
+			}
+			return orders;
+		}
+
+		/**
+		 * Parses one line (without its line end) into the given order.
+		 * @param b the bytes holding the line
+		 * @param start the offset of the first byte of the line
+		 * @param end the offset behind the last byte of the line
+		 * @param o the order whose attributes are set
+		 * @throws NumberFormatException if a number or the number of attributes is malformed
+		 */
+		static void parseLine(byte[] b, int start, int end, Order o) {
+			int field = 0;
+			int fieldStart = start;
+			for (int i = start; i <= end && field < NUM_FIELDS; i++) {
+				if (i < end && b[i] != '|') {
+					continue;
+				}
+				switch (field) {
+				case 0:
+					o.o_orderkey = parseInt(b, fieldStart, i);
+					break;
+				case 1:
+					o.o_custkey = parseInt(b, fieldStart, i);
+					break;
+				case 2:
+					o.o_orderstatus = (char) (b[fieldStart] & 0xFF);
+					break;
+				case 3:
+					o.o_totalprice = parseDouble(b, fieldStart, i);
+					break;
+				case 4:
+					o.o_orderdate = parseString(b, fieldStart, i);
+					break;
+				case 5:
+					o.o_orderpriority = parseString(b, fieldStart, i);
+					break;
+				case 6:
+					o.o_clerk = parseString(b, fieldStart, i);
+					break;
+				case 7:
+					o.o_shippingpriority = parseInt(b, fieldStart, i);
+					break;
+				default:
+					o.o_comment = parseString(b, fieldStart, i);
+				}
+				field++;
+				fieldStart = i + 1;
+			}
+			if (field < NUM_FIELDS) {
+				throw new NumberFormatException("expected " + NUM_FIELDS + " attributes, found " + field);
+			}
+		}
+
+		/**
+		 * Parses a decimal int from the bytes from start (inclusive) to end (exclusive).
+		 */
+		static int parseInt(byte[] b, int start, int end) {
+			boolean negative = start < end && b[start] == '-';
+			int i = negative ? start + 1 : start;
+			if (i == end) {
+				throw new NumberFormatException("empty number");
+			}
+			long value = 0;
+			for (; i < end; i++) {
+				int digit = b[i] - '0';
+				if (digit < 0 || digit > 9) {
+					throw new NumberFormatException("not a digit: " + (char) b[i]);
+				}
+				value = value * 10 + digit;
+				if (value > (long) Integer.MAX_VALUE + 1) {
+					throw new NumberFormatException("int out of range");
+				}
+			}
+			value = negative ? -value : value;
+			if (value > Integer.MAX_VALUE) {
+				throw new NumberFormatException("int out of range");
+			}
+			return (int) value;
+		}
+
+		/**
+		 * Parses a double from the bytes from start (inclusive) to end (exclusive). Plain decimals with up to
+		 * 15 digits (like all TPC-H prices) are computed directly and exactly rounded, since mantissa and power of ten
+		 * are both exact doubles; anything else is left to Double.parseDouble.
+		 */
+		static double parseDouble(byte[] b, int start, int end) {
+			boolean negative = start < end && b[start] == '-';
+			long mantissa = 0;
+			int digits = 0;
+			int scale = -1;
+			int i = negative ? start + 1 : start;
+			for (; i < end; i++) {
+				byte c = b[i];
+				if (c >= '0' && c <= '9') {
+					mantissa = mantissa * 10 + (c - '0');
+					digits++;
+					if (scale >= 0) {
+						scale++;
+					}
+				} else if (c == '.' && scale < 0) {
+					scale = 0;
+				} else {
+					break;
+				}
+			}
+			if (i < end || digits == 0 || digits > 15) {
+				return Double.parseDouble(parseString(b, start, end));
+			}
+			double value = scale > 0 ? mantissa / POWERS_OF_TEN[scale] : mantissa;
+			return negative ? -value : value;
+		}
+
+		/**
+		 * The powers of ten that are exact doubles
+		 */
+		private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+				1e12, 1e13, 1e14, 1e15 };
+
+		/**
+		 * Creates a String from the UTF-8 bytes from start (inclusive) to end (exclusive).
+		 */
+		static String parseString(byte[] b, int start, int end) {
+			for (int i = start; i < end; i++) {
+				if (b[i] < 0) {
+					return new String(b, start, end - start, StandardCharsets.UTF_8);
+				}
+			}
+			return new String(b, start, end - start, StandardCharsets.ISO_8859_1);
+		}
+
+		/**
+		 * Returns the offset behind the first line end at or after the given position, or size if there is none.
+		 */
+		private long nextLineStart(long position, long size) throws IOException {
+			ByteBuffer buffer = ByteBuffer.allocate(4096);
+			while (position < size) {
+				buffer.clear();
+				int read = channel.read(buffer, position);
+				if (read <= 0) {
+					break;
+				}
+				for (int i = 0; i < read; i++) {
+					if (buffer.get(i) == '\n') {
+						return position + i + 1;
+					}
+				}
+				position += read;
+			}
+			return size;
+		}
+
+	}
+
+	/**
+	 * Sorts orders by a key with a bounded amount of memory (external merge sort). The orders are collected until
+	 * they take about memoryBytes bytes, then this run is sorted and spilled to a temporary file in the record
+	 * format of Order.writeTo. At the end all runs are merged k-way, reading them sequentially side by side; more than
+	 * MERGE_FAN_IN runs are first merged in passes of MERGE_FAN_IN runs each. The last run is never spilled, it
+	 * takes part in the merge from memory. Orders with equal keys keep their input order.
+	 * 
+	 * Run file layout: the number of orders (one long), then per order its length (one int) and its record.
+	 *
+	 */
+	private static class OrderSorter implements Closeable {
+
+		/**
+		 * The maximum number of runs merged at once
+		 */
+		static final int MERGE_FAN_IN = 64;
+
+		/**
+		 * Estimate of the heap bytes of an Order object beyond its encoded size: the object and its Strings
+		 */
+		static final int ORDER_OVERHEAD_BYTES = 160;
+
+		static final int IO_BUFFER_BYTES = 64 * 1024;
+
+		/**
+		 * Sort keys for clustering a table
+		 */
+		static final Comparator<Order> BY_ORDERKEY = Comparator.comparingInt(o -> o.o_orderkey);
+		static final Comparator<Order> BY_CUSTKEY = Comparator.comparingInt(o -> o.o_custkey);
+		// yyyy-mm-dd sorts like the date
+		static final Comparator<Order> BY_ORDERDATE = Comparator.comparing(o -> o.o_orderdate);
+
+		private final Comparator<Order> key;
+		private final long memoryBytes;
+		private final Path tempDir;
+		private final List<Path> files = new ArrayList<Path>();
+		private final List<Closeable> openRuns = new ArrayList<Closeable>();
+		private int spilledRuns;
+
+		/**
+		 * Creates a sorter.
+		 * @param key the sort key
+		 * @param memoryBytes the approximate number of bytes the orders of one run may take on the heap
+		 * @param tempDir the directory for the run files, null for the default temporary directory
+		 */
+		public OrderSorter(Comparator<Order> key, long memoryBytes, Path tempDir) {
+			this.key = key;
+			this.memoryBytes = memoryBytes;
+			this.tempDir = tempDir;
+		}
+
+		/**
+		 * Sorts the given orders. The returned iterator reads the run files, which stay until the sorter is closed.
+		 * @param orders the orders to sort
+		 * @return the orders sorted by the key
+		 * @throws IOException
+		 */
+		public Iterator<Order> sort(Iterator<Order> orders) throws IOException {
+			List<Path> runs = new ArrayList<Path>();
+			ArrayList<Order> run = new ArrayList<Order>();
+			long runBytes = 0;
+			while (orders.hasNext()) {
+				Order o = orders.next();
+				run.add(o);
+				runBytes += o.getEncodedSize() + ORDER_OVERHEAD_BYTES;
+				if (runBytes >= memoryBytes) {
+					runs.add(spill(run.iterator(), run.size(), true));
+					run.clear();
+					runBytes = 0;
+				}
+			}
+			run.sort(key);
+			while (runs.size() >= MERGE_FAN_IN) {
+				List<Path> merged = new ArrayList<Path>();
+				for (int from = 0; from < runs.size(); from += MERGE_FAN_IN) {
+					List<Path> group = runs.subList(from, Math.min(from + MERGE_FAN_IN, runs.size()));
+					long count = 0;
+					List<Iterator<Order>> inputs = new ArrayList<Iterator<Order>>();
+					for (Path file : group) {
+						RunReader reader = open(file);
+						count += reader.remaining;
+						inputs.add(reader);
+					}
+					merged.add(spill(new RunMerger(inputs), count, false));
+					for (Path file : group) {
+						delete(file);
+					}
+				}
+				runs = merged;
+			}
+			List<Iterator<Order>> inputs = new ArrayList<Iterator<Order>>();
+			for (Path file : runs) {
+				inputs.add(open(file));
+			}
+			inputs.add(run.iterator());
+			return inputs.size() == 1 ? inputs.get(0) : new RunMerger(inputs);
+		}
+
+		/**
+		 * Returns the number of runs written to temporary files, without the runs of merge passes.
+		 */
+		public int getSpilledRuns() {
+			return spilledRuns;
+		}
+
+		/**
+		 * Closes and deletes all run files.
+		 */
+		public void close() throws IOException {
+			for (Closeable run : openRuns) {
+				run.close();
+			}
+			openRuns.clear();
+			for (Path file : new ArrayList<Path>(files)) {
+				delete(file);
+			}
+		}
+
+		/**
+		 * Writes the given orders to a new run file, sorting them first if they are not sorted yet.
+		 */
+		private Path spill(Iterator<Order> orders, long count, boolean sortFirst) throws IOException {
+			if (sortFirst) {
+				List<Order> run = new ArrayList<Order>();
+				orders.forEachRemaining(run::add);
+				run.sort(key);
+				orders = run.iterator();
+				spilledRuns++;
+			}
+			Path file = tempDir == null ? Files.createTempFile("orders-run", ".tmp") : Files.createTempFile(tempDir, "orders-run", ".tmp");
+			files.add(file);
+			ByteBuffer record = ByteBuffer.allocate(4096);
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), IO_BUFFER_BYTES))) {
+				out.writeLong(count);
+				while (orders.hasNext()) {
+					Order o = orders.next();
+					int size = o.getEncodedSize();
+					if (size > record.capacity()) {
+						record = ByteBuffer.allocate(size);
+					}
+					o.writeTo(record, 0);
+					out.writeInt(size);
+					out.write(record.array(), 0, size);
+				}
+			}
+			return file;
+		}
+
+		private RunReader open(Path file) throws IOException {
+			RunReader reader = new RunReader(new DataInputStream(new BufferedInputStream(Files.newInputStream(file), IO_BUFFER_BYTES)));
+			openRuns.add(reader);
+			return reader;
+		}
+
+		private void delete(Path file) throws IOException {
+			Files.deleteIfExists(file);
+			files.remove(file);
+		}
+
+		/**
+		 * Reads the orders of one run file in order.
+		 */
+		private static class RunReader implements Iterator<Order>, Closeable {
+
+			private final DataInputStream in;
+			private long remaining;
+			private byte[] record = new byte[4096];
+
+			RunReader(DataInputStream in) throws IOException {
+				this.in = in;
+				this.remaining = in.readLong();
+			}
+
+			public boolean hasNext() {
+				return remaining > 0;
+			}
+
+			public Order next() {
+				if (remaining == 0) {
+					throw new NoSuchElementException();
+				}
+				try {
+					int size = in.readInt();
+					if (size > record.length) {
+						record = new byte[size];
+					}
+					in.readFully(record, 0, size);
+					if (--remaining == 0) {
+						in.close();
+					}
+					return new Order(ByteBuffer.wrap(record, 0, size), 0);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+
+			public void close() throws IOException {
+				in.close();
+			}
+
+		}
+
+		/**
+		 * Merges sorted inputs, using a heap of the inputs ordered by their next order.
+		 * Of equal orders, the one of the earlier input comes first.
+		 */
+		private class RunMerger implements Iterator<Order> {
+
+			private final List<Iterator<Order>> inputs;
+			private final Order[] heads;
+			private final PriorityQueue<Integer> heap;
+
+			RunMerger(List<Iterator<Order>> inputs) {
+				this.inputs = inputs;
+				this.heads = new Order[inputs.size()];
+				this.heap = new PriorityQueue<Integer>(Math.max(1, inputs.size()), (a, b) -> {
+					int c = key.compare(heads[a], heads[b]);
+					return c != 0 ? c : Integer.compare(a, b);
+				});
+				for (int input = 0; input < inputs.size(); input++) {
+					advance(input);
+				}
+			}
+
+			public boolean hasNext() {
+				return !heap.isEmpty();
+			}
+
+			public Order next() {
+				Integer input = heap.poll();
+				if (input == null) {
+					throw new NoSuchElementException();
+				}
+				Order o = heads[input];
+				advance(input);
+				return o;
+			}
+
+			private void advance(int input) {
+				Iterator<Order> it = inputs.get(input);
+				if (it.hasNext()) {
+					heads[input] = it.next();
+					heap.add(input);
+				} else {
+					heads[input] = null;
+				}
+			}
+
+		}
+
+	}
+
+	/**
+	 * A benchmark harness for the table formats, run with `java SlottedPageExercise.java bench [options]`.
+	 * For every combination of layout, page size and table size it loads a table of generated orders, or of the
+	 * orders of a .tbl file (in chunks, generating or parsing them is not measured), and measures storeOrder, getOrder with sequential and random TupleIdentifiers,
+	 * a parallel scan of all orders (these through OrderTable), unusedBytes over all pages, getSpaceUtilization, a column aggregate (SUM(o_totalprice) GROUP BY
+	 * o_orderstatus) and, for the slotted pages, building the OrderKeyIndex and getOrderByKey with random keys. Each combination is run for some warmup iterations first, then for the measured ones;
+	 * the report has the mean time per operation, the throughput and the bytes allocated per operation
+	 * (from the allocation counter of the thread, see StorageMetrics, so allocations of parallel workers are not counted).
+	 * 
+	 * Options (lists are comma-separated):
+	 * --layouts=row,pax        row: SlottedPageExercise, pax: PaxTable
+	 * --page-sizes=512,4096,65536
+	 * --orders=1000,100000     the table sizes
+	 * --reads=1000000          the maximum number of getOrder calls per access pattern
+	 * --storage=heap|offheap   FakeBlockStorage (the pool copies pages into heap frames) or OffHeapBlockStorage
+	 *                          (the frames are the off-heap pages themselves, see BufferPool)
+	 * --frames=1024            the frames of the buffer pool
+	 * --warmup=1 --iterations=3
+	 * --seed=42
+	 * --tbl=orders_small.tbl   load the orders of this file instead of generated ones, repeating them up to the
+	 *                          table size with o_orderkey renumbered, e.g. to compare the layouts on real data
+	 *
+	 */
+	private static class Benchmark {
+
+		/**
+		 * The number of orders generated at once, outside the measured time
+		 */
+		static final int CHUNK_ORDERS = 64 * 1024;
+
+		static final String[] STATUSES = { "F", "O", "P" };
+		static final String[] WORDS = { "furiously", "carefully", "quickly", "slyly", "blithely", "final", "regular",
+				"express", "pending", "ironic", "special", "even", "bold", "silent", "deposits", "accounts", "requests",
+				"packages", "instructions", "foxes", "theodolites", "pinto", "beans", "ideas", "dependencies", "asymptotes",
+				"according", "to", "the", "among", "sleep", "haggle", "nag", "wake", "cajole", "integrate", "across" };
+		static final LocalDate FIRST_ORDER_DATE = LocalDate.of(1992, 1, 1);
+		static final int ORDER_DATE_DAYS = 2405;
+
+		private final Map<String, String> options = new HashMap<String, String>();
+
+		/**
+		 * The lines of the --tbl file, null to generate the orders
+		 */
+		private final List<String> tblLines;
+
+		/**
+		 * Per operation of the current combination: the nanoseconds, allocated bytes and operations of the measured
+		 * iterations, in the order in which the operations were first run
+		 */
+		private final Map<String, long[]> totals = new LinkedHashMap<String, long[]>();
+
+		/**
+		 * False during the warmup iterations
+		 */
+		private boolean measuring;
+
+		Benchmark(String[] args) {
+			options.put("layouts", "row,pax");
+			options.put("page-sizes", "512,4096,65536");
+			options.put("orders", "1000,100000");
+			options.put("reads", "1000000");
+			options.put("storage", "heap");
+			options.put("frames", String.valueOf(DEFAULT_POOL_FRAMES));
+			options.put("warmup", "1");
+			options.put("iterations", "3");
+			options.put("seed", "42");
+			options.put("tbl", "");
+			for (String arg : args) {
+				int equals = arg.indexOf('=');
+				if (!arg.startsWith("--") || equals < 0 || !options.containsKey(arg.substring(2, equals))) {
+					throw new IllegalArgumentException("unknown option " + arg + ", known are " + options.keySet());
+				}
+				options.put(arg.substring(2, equals), arg.substring(equals + 1));
+			}
+			if (options.get("tbl").isEmpty()) {
+				tblLines = null;
+			} else {
+				try {
+					tblLines = Files.readAllLines(Path.of(options.get("tbl")));
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				if (tblLines.isEmpty()) {
+					throw new IllegalArgumentException(options.get("tbl") + " holds no orders");
+				}
+			}
+		}
+
+		void run() throws Exception {
+			System.out.printf("%-4s %6s %9s  %-17s %12s %14s %12s %10s%n", "", "page", "orders", "operation", "ns/op", "ops/s",
+					"alloc B/op", "alloc MB/s");
+			int warmup = Integer.parseInt(options.get("warmup"));
+			int iterations = Integer.parseInt(options.get("iterations"));
+			for (String layout : options.get("layouts").split(",")) {
+				for (String pageSize : options.get("page-sizes").split(",")) {
+					for (String orders : options.get("orders").split(",")) {
+						for (int iteration = 0; iteration < warmup + iterations; iteration++) {
+							measuring = iteration >= warmup;
+							runTable(layout, Integer.parseInt(pageSize), Integer.parseInt(orders));
+						}
+						for (Map.Entry<String, long[]> total : totals.entrySet()) {
+							double nanos = (double) total.getValue()[0] / total.getValue()[2];
+							double bytes = (double) total.getValue()[1] / total.getValue()[2];
+							System.out.printf("%-4s %6s %9s  %-17s %12.1f %14.0f %12.1f %10.1f%n", layout, pageSize, orders,
+									total.getKey(), nanos, 1e9 / nanos, bytes, bytes * 1e3 / nanos);
+						}
+						totals.clear();
+					}
+				}
+			}
+		}
+
+		private BlockStorage newStorage(int pageSize) {
+			return options.get("storage").equals("offheap") ? new OffHeapBlockStorage(pageSize) : new FakeBlockStorage(pageSize);
+		}
+
+		private BufferPool newPool(int pageSize) {
+			int frames = Integer.parseInt(options.get("frames"));
+			return new BufferPool(newStorage(pageSize), frames, new ClockPolicy(frames));
+		}
+
+		/**
+		 * Creates a table of the given layout.
+		 */
+		private OrderTable newTable(String layout, int pageSize) throws Exception {
+			if (layout.equals("row")) {
+				return new SlottedPageExercise(newPool(pageSize));
+			} else if (layout.equals("pax")) {
+				Random sample = new Random(seed());
+				long varBytes = 0;
+				for (int i = 0; i < 1000; i++) {
+					varBytes += order(sample, i).getEncodedSize() - Order.FIXED_SIZE;
+				}
+				return new PaxTable(newPool(pageSize), PaxTable.capacityFor(pageSize, (int) (varBytes / 1000)), false);
+			}
+			throw new IllegalArgumentException("unknown layout " + layout);
+		}
+
+		/**
+		 * Measures the OrderTable operations on a new table of the given layout, then the operations only that layout has.
+		 */
+		private void runTable(String layout, int pageSize, int numOrders) throws Exception {
+			OrderTable table = newTable(layout, pageSize);
+			TidList tids = new TidList(numOrders);
+			load(numOrders, o -> tids.add(table.storeOrder(o).toLong()), "storeOrder");
+			readAll(tids, tid -> table.getOrder(tid));
+			measure("scan", numOrders, () -> table.orders(OrderPredicate.all(), true).count());
+			if (table instanceof SlottedPageExercise) {
+				runRow((SlottedPageExercise) table, numOrders);
+			} else {
+				runPax((PaxTable) table, numOrders);
+			}
+		}
+
+		private void runRow(SlottedPageExercise table, int numOrders) throws Exception {
+			int pages = table.storage.numberOfPagesUsed();
+			measure("unusedBytes", pages, () -> {
+				for (int pgId = 0; pgId < pages; pgId++) {
+					table.unusedBytes(pgId);
+				}
+			});
+			measure("utilization", 1000, () -> {
+				for (int i = 0; i < 1000; i++) {
+					table.getSpaceUtilization();
+				}
+			});
+			measure("utilizationScan", 1, () -> table.computeSpaceUtilization());
+			measure("sumByStatus", numOrders, () -> table.sumTotalPriceByStatus(OrderPredicate.all()));
+			measure("createIndex", numOrders, () -> table.createOrderKeyIndex(1.0));
+			int reads = Math.min(numOrders, Integer.parseInt(options.get("reads")));
+			Random random = new Random(seed());
+			int[] keys = new int[reads];
+			for (int i = 0; i < reads; i++) {
+				keys[i] = 1 + random.nextInt(numOrders);
+			}
+			measure("getOrderByKey", reads, () -> {
+				for (int key : keys) {
+					table.getOrderByKey(key);
+				}
+			});
+		}
+
+		private void runPax(PaxTable table, int numOrders) throws Exception {
+			measure("utilizationScan", 1, () -> table.getSpaceUtilization());
+			measure("sumByStatus", numOrders, () -> table.sumTotalPriceByStatus(true));
+		}
+
+		/**
+		 * Something to be measured that may throw.
+		 */
+		private interface Operation {
+			void run() throws Exception;
+		}
+
+		private interface OrderConsumer {
+			void accept(Order o) throws Exception;
+		}
+
+		private interface TidConsumer {
+			void accept(TupleIdentifier tid) throws Exception;
+		}
+
+		/**
+		 * Inserts the given number of orders (see order), measuring only the inserts.
+		 */
+		private void load(int numOrders, OrderConsumer insert, String name) throws Exception {
+			Random random = new Random(seed());
+			Order[] chunk = new Order[Math.min(CHUNK_ORDERS, numOrders)];
+			for (int from = 0; from < numOrders; from += chunk.length) {
+				int size = Math.min(chunk.length, numOrders - from);
+				for (int i = 0; i < size; i++) {
+					chunk[i] = order(random, from + i);
+				}
+				measure(name, size, () -> {
+					for (int i = 0; i < size; i++) {
+						insert.accept(chunk[i]);
+					}
+				});
+			}
+		}
+
+		/**
+		 * Reads the orders of the given TIDs in TID order and in random order.
+		 */
+		private void readAll(TidList tids, TidConsumer read) throws Exception {
+			int reads = Math.min(tids.size(), Integer.parseInt(options.get("reads")));
+			measure("getOrder seq", reads, () -> {
+				for (int i = 0; i < reads; i++) {
+					read.accept(new TupleIdentifier(tids.get(i)));
+				}
+			});
+			Random random = new Random(seed());
+			int[] positions = new int[reads];
+			for (int i = 0; i < reads; i++) {
+				positions[i] = random.nextInt(tids.size());
+			}
+			measure("getOrder random", reads, () -> {
+				for (int position : positions) {
+					read.accept(new TupleIdentifier(tids.get(position)));
+				}
+			});
+		}
+
+		/**
+		 * Runs the operation once and, outside the warmup, adds its time and allocated bytes to the totals.
+		 */
+		private void measure(String name, long ops, Operation operation) throws Exception {
+			long allocated = StorageMetrics.allocatedBytes();
+			long start = System.nanoTime();
+			operation.run();
+			long nanos = System.nanoTime() - start;
+			allocated = StorageMetrics.allocatedBytes() - allocated;
+			if (measuring) {
+				long[] total = totals.computeIfAbsent(name, k -> new long[3]);
+				total[0] += nanos;
+				total[1] += allocated;
+				total[2] += ops;
+			}
+		}
+
+		private long seed() {
+			return Long.parseLong(options.get("seed"));
+		}
+
+		/**
+		 * Returns the order with the given number: a line of the --tbl file, or a generated one.
+		 * Either way, its o_orderkey is the number plus 1.
+		 */
+		private Order order(Random random, int number) {
+			if (tblLines == null) {
+				return generate(random, number);
+			}
+			Order o = new Order(tblLines.get(number % tblLines.size()));
+			o.o_orderkey = number + 1;
+			return o;
+		}
+
+		/**
+		 * Generates an order with TPC-H-like values: the given number as order key, a random customer, status,
+		 * price, date, priority and clerk, and a comment of random words.
+		 */
+		static Order generate(Random random, int number) {
+			StringBuilder comment = new StringBuilder();
+			int words = 3 + random.nextInt(10);
+			for (int i = 0; i < words && comment.length() < 70; i++) {
+				comment.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+			}
+			return new Order((number + 1) + "|" + (1 + random.nextInt(150000)) + "|" + STATUSES[random.nextInt(STATUSES.length)]
+					+ "|" + (90000 + random.nextInt(50000000)) / 100.0 + "|" + FIRST_ORDER_DATE.plusDays(random.nextInt(ORDER_DATE_DAYS))
+					+ "|" + Order.PRIORITIES[random.nextInt(Order.PRIORITIES.length)] + "|" + Order.formatClerk(1 + random.nextInt(1000))
+					+ "|0|" + comment.toString().trim() + "|");
+		}
+
+	}
+
+	/**
+	 * Compresses order comments in the style of FSST (fast static symbol table): every symbol of a table of
+	 * 255 symbols (1 to 8 bytes long) is replaced by its one-byte code, a byte that starts no symbol is written as
+	 * ESCAPE followed by the byte itself. The table is fixed, trained once on the comments of orders_small.tbl
+	 * (TPC-H generates comments from a small grammar, so the same words and word pairs keep coming back), and thus
+	 * never has to be stored with the data. Comments shrink to less than a third, and decoding is one table
+	 * lookup per code.
+	 *
+	 */
+	private static class CommentCodec {
+
+		/**
+		 * The code that escapes a literal byte
+		 */
+		static final int ESCAPE = 255;
+
+		/**
+		 * The symbols, the index of a symbol is its code
+		 */
+		private static final String[] SYMBOLS = {
+				" ", " a", " account", " across", " affi", " after ", " against", " along ", " among ", " are", " asy",
+				" b", " beans ", " beans. ", " blithel", " boost ", " cajole", " cajole ", " careful", " de", " depende",
+				" deposit", " dolphin", " even", " excuses", " expres", " final ", " fluffil", " foxes", " furious",
+				" haggle", " ideas ", " ideas.", " instruc", " ironic ", " nag ", " of the ", " p", " package",
+				" pending", " pinto", " platele", " quickly", " regular", " request", " s", " sleep", " slyly ",
+				" special", " the ", " the car", " the fur", " the sly", " theodol", " unusual", " wake ", ", ",
+				", even", ", expres", ", final ", ", ironic", ", regu", ". ", ". blit", ". care", ". fluff", ". furiou",
+				". ironic", ". slyly ", "a", "abo", "ac", "acco", "accounts", "after ", "ag", "against", "ain", "al",
+				"ar", "asympto", "ave", "b", "blithely", "bold", "boost ", "bout th", "bove the", "c", "ca", "caj",
+				"care", "carefull", "cial ", "cording ", "cou", "courts ", "d", "de", "dependen", "deposits", "dete",
+				"dolphin", "e", "e ", "e blithe", "e carefu", "e furiou", "e quic", "e slyly ", "eful", "en", "es",
+				"es. ", "even", "excuses", "express", "express ", "f", "ffi", "ffix", "final ", "fluff", "foxes",
+				"fter ", "fu", "fully ", "furiousl", "g", "gle", "h", "hag", "haggle", "hely", "i", "idea", "ideas ",
+				"ideas.", "ilent", "ily ", "in", "inal", "ing", "instr", "integ", "ious", "ironic", "ironic, ", "ites",
+				"ites. ", "jole", "kly ", "l", "lar ", "le", "lith", "lly ", "longside", "ly", "ly ", "ly a", "ly ac",
+				"ly bold", "ly even ", "ly expre", "ly final", "ly ironi", "ly regul", "ly s", "ly spe", "ly unusu",
+				"ly. ", "lyly. ", "m", "mong ", "mptotes ", "n", "ncies", "o", "ol", "ole", "on", "ong the ", "ongside ",
+				"os", "ound", "p", "packages", "pending", "pending ", "pinto", "platelet", "quick", "quickly ", "r",
+				"ra", "rate", "rding ", "re", "regul", "regular", "regular ", "requests", "ross the", "s", "s ", "s a",
+				"s ar", "s boost ", "s cajole", "s haggle", "s nag ", "s sleep ", "s wake ", "s. ", "s. furio", "s. sly",
+				"silent", "silent ", "sleep", "sly ", "slyly ", "special ", "ss", "t", "t ", "t the ", "te", "th",
+				"the ", "theodol", "ti", "tion", "tions ", "to the", "ts ", "ts. ", "u", "uction", "uctions ", "ular ",
+				"unusual", "unusual ", "us", "usly", "ut the ", "ve", "ve the", "wake ", "y", "y ", "y even", "y final ",
+				"y ironic", "y regula"
+		};
+
+		/**
+		 * The bytes of each symbol, and for each byte value the codes of the symbols starting with it, longest first
+		 */
+		private static final byte[][] SYMBOL_BYTES = new byte[SYMBOLS.length][];
+		private static final int[][] CODES_BY_FIRST_BYTE = new int[256][];
+
+		static {
+			List<List<Integer>> codes = new ArrayList<List<Integer>>();
+			for (int i = 0; i < 256; i++) {
+				codes.add(new ArrayList<Integer>());
+			}
+			for (int code = 0; code < SYMBOLS.length; code++) {
+				SYMBOL_BYTES[code] = SYMBOLS[code].getBytes(StandardCharsets.US_ASCII);
+				codes.get(SYMBOL_BYTES[code][0] & 0xFF).add(code);
+			}
+			for (int i = 0; i < 256; i++) {
+				CODES_BY_FIRST_BYTE[i] = codes.get(i).stream().sorted((a, b) -> SYMBOL_BYTES[b].length - SYMBOL_BYTES[a].length)
+						.mapToInt(Integer::intValue).toArray();
+			}
+		}
+
+		/**
+		 * Compresses the given bytes, replacing the longest symbol at each position by its code.
+		 * @param in the bytes to compress
+		 * @return the codes
+		 */
+		static byte[] encode(byte[] in) {
+			byte[] out = new byte[2 * in.length];
+			int length = 0;
+			int i = 0;
+			while (i < in.length) {
+				int code = longestSymbol(in, i);
+				if (code < 0) {
+					out[length++] = (byte) ESCAPE;
+					out[length++] = in[i++];
+				} else {
+					out[length++] = (byte) code;
+					i += SYMBOL_BYTES[code].length;
+				}
+			}
+			return Arrays.copyOf(out, length);
+		}
+
+		/**
+		 * Decompresses the codes in the buffer from start (inclusive) to end (exclusive).
+		 * @return the decompressed bytes
+		 */
+		static byte[] decode(ByteBuffer b, int start, int end) {
+			int length = 0;
+			for (int i = start; i < end; i++) {
+				int code = b.get(i) & 0xFF;
+				if (code == ESCAPE) {
+					length++;
+					i++;
+				} else {
+					length += SYMBOL_BYTES[code].length;
+				}
+			}
+			byte[] out = new byte[length];
+			int pos = 0;
+			for (int i = start; i < end; i++) {
+				int code = b.get(i) & 0xFF;
+				if (code == ESCAPE) {
+					out[pos++] = b.get(++i);
+				} else {
+					byte[] symbol = SYMBOL_BYTES[code];
+					System.arraycopy(symbol, 0, out, pos, symbol.length);
+					pos += symbol.length;
+				}
+			}
+			return out;
+		}
 
 		/**
-		 * Page size in bytes
+		 * Returns the code of the longest symbol at the given position, -1 if no symbol matches.
 		 */
-		private static int pageSize = 512;
+		private static int longestSymbol(byte[] in, int position) {
+			for (int code : CODES_BY_FIRST_BYTE[in[position] & 0xFF]) {
+				byte[] symbol = SYMBOL_BYTES[code];
+				if (position + symbol.length <= in.length && Arrays.equals(in, position, position + symbol.length, symbol, 0, symbol.length)) {
+					return code;
+				}
+			}
+			return -1;
+		}
+
+	}
+
+	/**
+	 * Objects of class Order represent tuples from the TPC-H table orders 
+	 *
+	 */
+	static class Order {
 		
+
+		int o_orderkey;
+		int o_custkey;
+		char o_orderstatus;
+		double o_totalprice;
+		String o_orderdate;
+		String o_orderpriority;
+		String o_clerk;
+		int o_shippingpriority;
+		String o_comment;
+
 		/**
-		 * Internally used Map to store the mapping of page ids to byte arrays (i.e., pages).
+		 * The compressed comment and the comment it was computed from (see packedComment)
 		 */
-		Map<Integer, byte[]> storage;
+		private PackedComment packed;
+
+		private Order() {
+
+		};
 
 		/**
-		 * Internal counter to keep track about the pages already created.
+		 * Constructur that uses a |-separted string to initialize the Order object.
+		 * @param line A pipe (i.e., |) separated string containing a tuple of relation TPC-H table orders. 
+		 *        the String is parsed (see OrderTblParser.parseLine) and the object initialized with the individual attribute values
 		 */
-		int nextempty;
-
+		public Order(String line) {
+			byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+			OrderTblParser.parseLine(bytes, 0, bytes.length, this);
+		}
 
 		/**
-		 * Instantiates the FakeBlockStorage.
+		 * This constructor takes a byte array that contains the attribute values of an Order object
+		 * (as written by getAsByteArray) and reconstructs the actual attribute values from it.
+		 * @param o A byte array containing the information of an Order object
+		 * @throws IOException
 		 */
-		public FakeBlockStorage() {
-			//internally pages are kept in a HashHap, that maps page id to the page content 
-			storage = new HashMap<Integer, byte[]>();
-			//init the next page id to be used to zero
-			nextempty = 0;
+		public Order(byte[] o) throws IOException {
+			this(ByteBuffer.wrap(o), 0);
 		}
 
 		/**
-		 * Returns the page size in bytes
-		 * @return page size 
+		 * This constructor decodes an Order object in place, from the bytes of the given buffer
+		 * starting at the given offset (as written by writeTo). It only uses absolute reads,
+		 * so neither the buffer's position nor any temporary array is involved.
+		 * @param b The buffer holding the attribute values, e.g. a page
+		 * @param offset The offset of the first attribute value
+		 * @throws IOException if the record has an unknown version or malformed Strings
 		 */
-		public int getPageSize() {
-			return pageSize;
+		public Order(ByteBuffer b, int offset) throws IOException {
+			int version = b.get(offset + VERSION_OFFSET);
+			if (version != FORMAT_VERSION) {
+				throw new IOException("unknown order record version " + version);
+			}
+			int flags = b.get(offset + FLAGS_OFFSET);
+			this.o_orderkey = b.getInt(offset + ORDERKEY_OFFSET);
+			this.o_custkey = b.getInt(offset + CUSTKEY_OFFSET);
+			this.o_shippingpriority = b.getInt(offset + SHIPPRIORITY_OFFSET);
+			this.o_totalprice = b.getDouble(offset + TOTALPRICE_OFFSET);
+			this.o_orderstatus = (flags & STATUS_TEXT) == 0 ? (char) b.get(offset + STATUS_OFFSET)
+					: readText(b, offset, STATUS_TEXT).charAt(0);
+			this.o_orderdate = (flags & DATE_TEXT) == 0 ? formatDate(b.getInt(offset + ORDERDATE_OFFSET))
+					: readText(b, offset, DATE_TEXT);
+			this.o_orderpriority = (flags & PRIORITY_TEXT) == 0 ? PRIORITIES[b.get(offset + PRIORITY_OFFSET)]
+					: readText(b, offset, PRIORITY_TEXT);
+			this.o_clerk = (flags & CLERK_TEXT) == 0 ? formatClerk(b.getInt(offset + CLERK_OFFSET))
+					: readText(b, offset, CLERK_TEXT);
+			this.o_comment = readText(b, offset, 0);
 		}
 
+		/*
+		 * The record format (version 1). The fixed-width attributes come first, at fixed offsets:
+		 * - version (byte), flags (byte), orderpriority as index into PRIORITIES (byte), orderstatus (byte)
+		 * - orderkey, custkey, shippingpriority (int), orderdate as days since 1970-01-01 (int), clerk number (int)
+		 * - totalprice (double)
+		 * They are followed by the variable-length tail: a table with the end offset (u16, relative to the
+		 * record start) of each String in the tail, then the Strings in modified UTF-8, without lengths.
+		 * The tail always holds the comment. An orderdate, orderpriority, clerk or orderstatus that does not
+		 * have the usual TPC-H form (e.g. a date that is not yyyy-mm-dd) is stored as text in the tail instead,
+		 * marked by its *_TEXT flag; these Strings follow the comment in the order of their flag bits.
+		 * The COMMENT_PACKED flag marks a comment that is compressed with CommentCodec.
+		 */
+		static final byte FORMAT_VERSION = 1;
+		static final int VERSION_OFFSET = 0;
+		static final int FLAGS_OFFSET = 1;
+		static final int PRIORITY_OFFSET = 2;
+		static final int STATUS_OFFSET = 3;
+		static final int ORDERKEY_OFFSET = 4;
+		static final int CUSTKEY_OFFSET = 8;
+		static final int SHIPPRIORITY_OFFSET = 12;
+		static final int ORDERDATE_OFFSET = 16;
+		static final int CLERK_OFFSET = 20;
+		static final int TOTALPRICE_OFFSET = 24;
+		static final int FIXED_SIZE = 32;
+		static final int OFFSET_ENTRY_SIZE = 2;
+		static final int DATE_TEXT = 1;
+		static final int PRIORITY_TEXT = 2;
+		static final int CLERK_TEXT = 4;
+		static final int STATUS_TEXT = 8;
+		static final int TEXT_FLAGS = DATE_TEXT | PRIORITY_TEXT | CLERK_TEXT | STATUS_TEXT;
+		static final int COMMENT_PACKED = 16;
+		static final String[] PRIORITIES = { "1-URGENT", "2-HIGH", "3-MEDIUM", "4-NOT SPECIFIED", "5-LOW" };
+		static final String CLERK_PREFIX = "Clerk#";
+		static final int CLERK_DIGITS = 9;
+		// Marks an orderdate or clerk that has no compact form
+		static final int NO_VALUE = Integer.MIN_VALUE;
+
 		/**
-		 * Returns an array of the ids of pages that were allocated.
-		 * @return 
+		 * This method serializes the individual attribute values of this object into a byte array.
+		 * The format is the one of writeTo.
+		 * @return a byte array containing the attribute values of this Order object in byte form
+		 * @throws IOException
 		 */
-		public Set<Integer> getAllPageIds() {
-			return storage.keySet();
+		public byte[] getAsByteArray() throws IOException {
+			byte[] bytes = new byte[getEncodedSize()];
+			writeTo(ByteBuffer.wrap(bytes), 0);
+			return bytes;
 		}
 
 		/**
-		 * Creates a new page and returns its id.
-		 * @return The id of the created page.
+		 * Returns the number of bytes getAsByteArray and writeTo produce for this object, without serializing it.
+		 * @return the encoded size in bytes
+		 * @throws UTFDataFormatException if a String is too long to be encoded
 		 */
-		public int initNewPage() {
-			storage.put(nextempty, new byte[pageSize]);
-			return nextempty++;
+		public int getEncodedSize() throws UTFDataFormatException {
+			return getEncodedSize(false);
 		}
 
 		/**
-		 * Given a page id, this method returns the corresponding byte array of the page content.
-		 * If the page id is not known, a PageNotFoundException is thrown.
-		 * @param id The id of the page to return
-		 * @return The byte[] (page) that corresponds to the given page id
-		 * @throws PageNotFoundException
+		 * Returns the number of bytes writeTo produces for this object, without serializing it.
+		 * @param packComment true if the comment is to be compressed
+		 * @return the encoded size in bytes
+		 * @throws UTFDataFormatException if a String is too long to be encoded
 		 */
-		public byte[] getPage(int id) throws PageNotFoundException {
-			if (!storage.containsKey(id)) {
-				throw new PageNotFoundException("page " + id + " not known");
+		public int getEncodedSize(boolean packComment) throws UTFDataFormatException {
+			int flags = textFlags();
+			int size = FIXED_SIZE + OFFSET_ENTRY_SIZE + (packComment ? packedComment().length : utfLength(this.o_comment));
+			for (int flag = DATE_TEXT; flag <= STATUS_TEXT; flag <<= 1) {
+				if ((flags & flag) != 0) {
+					size += OFFSET_ENTRY_SIZE + utfLength(textOf(flag));
+				}
 			}
-			return storage.get(id);
+			if (size > 0xFFFF) {
+				throw new UTFDataFormatException("encoded order too long: " + size + " bytes");
+			}
+			return size;
 		}
 
 		/**
-		 * Stores a page in the BlockStorage.
-		 * @param id The id indicating the page to be overwritten by the given byte array.
-		 * @param content The content of the page to be stored for the given id.
+		 * Serializes the attribute values of this object directly into the buffer, starting at the given offset,
+		 * in the record format described above, using absolute puts only.
+		 * @param b The buffer to write to, e.g. a page
+		 * @param offset The offset of the first attribute value
+		 * @return the number of bytes written, i.e. getEncodedSize()
+		 * @throws UTFDataFormatException if a String is too long to be encoded
 		 */
-		public void storePage(int id, byte[] content) {
-			storage.put(id, content);
+		public int writeTo(ByteBuffer b, int offset) throws UTFDataFormatException {
+			return writeTo(b, offset, false);
 		}
 
 		/**
-		 * Returns the number of total pages known. 
-		 * @return number of total pages known.
+		 * Serializes the attribute values of this object directly into the buffer, starting at the given offset.
+		 * @param b The buffer to write to, e.g. a page
+		 * @param offset The offset of the first attribute value
+		 * @param packComment true to compress the comment with CommentCodec
+		 * @return the number of bytes written, i.e. getEncodedSize(packComment)
+		 * @throws UTFDataFormatException if a String is too long to be encoded
 		 */
-		public int numberOfPagesUsed() {
-			return storage.size();
+		public int writeTo(ByteBuffer b, int offset, boolean packComment) throws UTFDataFormatException {
+			int flags = textFlags();
+			int day = (flags & DATE_TEXT) == 0 ? parseDate(this.o_orderdate) : 0;
+			int priority = (flags & PRIORITY_TEXT) == 0 ? priorityIndex(this.o_orderpriority) : 0;
+			int clerk = (flags & CLERK_TEXT) == 0 ? parseClerk(this.o_clerk) : 0;
+			b.put(offset + VERSION_OFFSET, FORMAT_VERSION);
+			b.put(offset + FLAGS_OFFSET, (byte) (packComment ? flags | COMMENT_PACKED : flags));
+			b.put(offset + PRIORITY_OFFSET, (byte) priority);
+			b.put(offset + STATUS_OFFSET, (flags & STATUS_TEXT) == 0 ? (byte) this.o_orderstatus : 0);
+			b.putInt(offset + ORDERKEY_OFFSET, this.o_orderkey);
+			b.putInt(offset + CUSTKEY_OFFSET, this.o_custkey);
+			b.putInt(offset + SHIPPRIORITY_OFFSET, this.o_shippingpriority);
+			b.putInt(offset + ORDERDATE_OFFSET, day);
+			b.putInt(offset + CLERK_OFFSET, clerk);
+			b.putDouble(offset + TOTALPRICE_OFFSET, this.o_totalprice);
+
+			// The offset table, then the Strings
+			int numTexts = 1 + Integer.bitCount(flags);
+			int entry = offset + FIXED_SIZE;
+			int pos = entry + numTexts * OFFSET_ENTRY_SIZE;
+			if (packComment) {
+				byte[] packed = packedComment();
+				b.put(pos, packed);
+				pos += packed.length;
+			} else {
+				pos = writeUTFBytes(b, pos, this.o_comment);
+			}
+			b.putChar(entry, (char) (pos - offset));
+			for (int flag = DATE_TEXT; flag <= STATUS_TEXT; flag <<= 1) {
+				if ((flags & flag) != 0) {
+					entry += OFFSET_ENTRY_SIZE;
+					pos = writeUTFBytes(b, pos, textOf(flag));
+					b.putChar(entry, (char) (pos - offset));
+				}
+			}
+			return pos - offset;
 		}
 
 		/**
-		 * Calculates and returns the number of bytes allocated in this storage.
-		 * It is simply the number of pages known times the size of an individual page.
-		 * @return The tocal number of bytes allocated.
+		 * Returns the comment compressed by CommentCodec. The result is kept until the comment changes,
+		 * so computing the size of a record and writing it compresses the comment only once.
 		 */
-		public int totalBytesAllocated() {
-			return storage.size() * pageSize;
+		private byte[] packedComment() throws UTFDataFormatException {
+			String comment = this.o_comment;
+			PackedComment cached = this.packed;
+			if (cached == null || cached.from != comment) {
+				byte[] utf = new byte[utfLength(comment)];
+				writeUTFBytes(ByteBuffer.wrap(utf), 0, comment);
+				cached = new PackedComment(comment, CommentCodec.encode(utf));
+				this.packed = cached;
+			}
+			return cached.bytes;
 		}
 
-	}
+		/**
+		 * A compressed comment with the comment it was computed from. It is immutable and replaced as a whole,
+		 * so threads that encode the same Order concurrently never see the bytes of one comment with another.
+		 */
+		private static final class PackedComment {
 
-	/**
-	 * As we have discussed in the lecture, a tuple identifier consists of 
-	 *    - the id of the page the tuple is stored in 
-	 *    - and the id of the slot within that page
-	 * 
-	 */
-	private static class TupleIdentifier {
+			final String from;
+			final byte[] bytes;
 
-		private int page;
-		private int slot;
+			PackedComment(String from, byte[] bytes) {
+				this.from = from;
+				this.bytes = bytes;
+			}
 
-		public TupleIdentifier(int page, int slot) {
-			this.page = page;
-			this.slot = slot;
 		}
 
-		public int getPage() {
-			return page;
+		/**
+		 * Returns the *_TEXT flags of the attributes of this object that have no compact form.
+		 */
+		private int textFlags() {
+			int flags = 0;
+			if (parseDate(this.o_orderdate) == NO_VALUE) {
+				flags |= DATE_TEXT;
+			}
+			if (priorityIndex(this.o_orderpriority) < 0) {
+				flags |= PRIORITY_TEXT;
+			}
+			if (parseClerk(this.o_clerk) == NO_VALUE) {
+				flags |= CLERK_TEXT;
+			}
+			if (this.o_orderstatus == 0 || this.o_orderstatus > 0x7F) {
+				flags |= STATUS_TEXT;
+			}
+			return flags;
 		}
 
-		public void setPage(int page) {
-			this.page = page;
+		/**
+		 * Returns the attribute value that is stored as text if the given *_TEXT flag is set.
+		 */
+		private String textOf(int flag) {
+			switch (flag) {
+			case DATE_TEXT:
+				return this.o_orderdate;
+			case PRIORITY_TEXT:
+				return this.o_orderpriority;
+			case CLERK_TEXT:
+				return this.o_clerk;
+			default:
+				return String.valueOf(this.o_orderstatus);
+			}
 		}
 
-		public int getSlot() {
-			return slot;
+		/**
+		 * Returns the days since 1970-01-01 of a date in the form yyyy-mm-dd, NO_VALUE for any other String.
+		 */
+		static int parseDate(String date) {
+			if (date.length() != 10 || date.charAt(4) != '-' || date.charAt(7) != '-') {
+				return NO_VALUE;
+			}
+			int year = digits(date, 0, 4);
+			int month = digits(date, 5, 7);
+			int day = digits(date, 8, 10);
+			if (year < 0 || month < 1 || month > 12 || day < 1 || day > YearMonth.of(year, month).lengthOfMonth()) {
+				return NO_VALUE;
+			}
+			return (int) LocalDate.of(year, month, day).toEpochDay();
 		}
 
-		public void setSlot(int slot) {
-			this.slot = slot;
+		/**
+		 * Formats days since 1970-01-01 as yyyy-mm-dd, the inverse of parseDate.
+		 */
+		static String formatDate(int epochDay) {
+			return LocalDate.ofEpochDay(epochDay).toString();
 		}
 
-	}
-	
-	/**
-	 * A simple Exception class that indicates that a requested page was not found in the BlockStorage
-	 * 
-	 */
-	private static class PageNotFoundException extends Exception {
+		/**
+		 * Returns the number of a clerk in the form Clerk#nnnnnnnnn, NO_VALUE for any other String.
+		 */
+		static int parseClerk(String clerk) {
+			if (clerk.length() != CLERK_PREFIX.length() + CLERK_DIGITS || !clerk.startsWith(CLERK_PREFIX)) {
+				return NO_VALUE;
+			}
+			int number = digits(clerk, CLERK_PREFIX.length(), clerk.length());
+			return number < 0 ? NO_VALUE : number;
+		}
 
-		public PageNotFoundException() {
-			super();
+		/**
+		 * Formats a clerk number as Clerk#nnnnnnnnn, the inverse of parseClerk.
+		 */
+		static String formatClerk(int number) {
+			String digits = Integer.toString(number);
+			StringBuilder clerk = new StringBuilder(CLERK_PREFIX.length() + CLERK_DIGITS).append(CLERK_PREFIX);
+			for (int i = digits.length(); i < CLERK_DIGITS; i++) {
+				clerk.append('0');
+			}
+			return clerk.append(digits).toString();
 		}
 
-		public PageNotFoundException(String s) {
-			super(s);
+		/**
+		 * Returns the index of the order priority in PRIORITIES, -1 if it is none of them.
+		 */
+		static int priorityIndex(String priority) {
+			for (int i = 0; i < PRIORITIES.length; i++) {
+				if (PRIORITIES[i].equals(priority)) {
+					return i;
+				}
+			}
+			return -1;
 		}
 
-	}
-	
-	/**
-	 * Objects of class Order represent tuples from the TPC-H table orders 
-	 *
-	 */
-	private static class Order {
-		
+		/**
+		 * Returns the decimal number of the ASCII digits from start (inclusive) to end (exclusive), -1 if there is another char.
+		 */
+		private static int digits(String str, int start, int end) {
+			int number = 0;
+			for (int i = start; i < end; i++) {
+				char c = str.charAt(i);
+				if (c < '0' || c > '9') {
+					return -1;
+				}
+				number = number * 10 + (c - '0');
+			}
+			return number;
+		}
 
-		int o_orderkey;
-		int o_custkey;
-		char o_orderstatus;
-		double o_totalprice;
-		String o_orderdate;
-		String o_orderpriority;
-		String o_clerk;
-		int o_shippingpriority;
-		String o_comment;
+		/**
+		 * Decodes a String of the variable-length tail of the record at the given offset.
+		 * @param flag the *_TEXT flag of the String, 0 for the comment
+		 */
+		private static String readText(ByteBuffer b, int offset, int flag) throws UTFDataFormatException {
+			int flags = b.get(offset + FLAGS_OFFSET);
+			int numTexts = 1 + Integer.bitCount(flags & TEXT_FLAGS);
+			// The comment comes first, then the Strings of the lower flag bits
+			int index = flag == 0 ? 0 : 1 + Integer.bitCount(flags & (flag - 1));
+			int table = offset + FIXED_SIZE;
+			int start = index == 0 ? table + numTexts * OFFSET_ENTRY_SIZE : offset + b.getChar(table + (index - 1) * OFFSET_ENTRY_SIZE);
+			int end = offset + b.getChar(table + index * OFFSET_ENTRY_SIZE);
+			if (flag == 0 && (flags & COMMENT_PACKED) != 0) {
+				byte[] utf = CommentCodec.decode(b, start, end);
+				return readUTF(ByteBuffer.wrap(utf), 0, utf.length);
+			}
+			return readUTF(b, start, end - start);
+		}
 
-		private Order() {
+		/**
+		 * Decodes a String in modified UTF-8 (as written by writeUTFBytes) of the given length
+		 * from the buffer at the given offset. Pure ASCII strings of heap buffers are copied directly.
+		 * @param b The buffer holding the string
+		 * @param start The offset of the first byte
+		 * @param length The number of bytes
+		 * @return The decoded String
+		 * @throws UTFDataFormatException
+		 */
+		private static String readUTF(ByteBuffer b, int start, int length) throws UTFDataFormatException {
+			int end = start + length;
+			if (b.hasArray()) {
+				byte[] array = b.array();
+				int i = b.arrayOffset() + start;
+				int arrayEnd = b.arrayOffset() + end;
+				if (arrayEnd > array.length) {
+					throw new IndexOutOfBoundsException("string of " + length + " bytes at " + start + " exceeds the buffer");
+				}
+				while (i < arrayEnd && array[i] >= 0) {
+					i++;
+				}
+				if (i == arrayEnd) {
+					return new String(array, b.arrayOffset() + start, length, StandardCharsets.ISO_8859_1);
+				}
+			}
+			char[] chars = new char[length];
+			int count = 0;
+			int i = start;
+			while (i < end) {
+				int c = b.get(i) & 0xFF;
+				if (c < 0x80) {
+					chars[count++] = (char) c;
+					i++;
+				} else if ((c >> 5) == 0x6 && i + 1 < end) {
+					chars[count++] = (char) (((c & 0x1F) << 6) | (b.get(i + 1) & 0x3F));
+					i += 2;
+				} else if ((c >> 4) == 0xE && i + 2 < end) {
+					chars[count++] = (char) (((c & 0x0F) << 12) | ((b.get(i + 1) & 0x3F) << 6) | (b.get(i + 2) & 0x3F));
+					i += 3;
+				} else {
+					throw new UTFDataFormatException("malformed input around byte " + (i - start));
+				}
+			}
+			return new String(chars, 0, count);
+		}
 
-		};
+		/**
+		 * Returns the orderkey of the order encoded (by writeTo) in the buffer at the given offset, without decoding it.
+		 */
+		static int readOrderKey(ByteBuffer b, int offset) {
+			return b.getInt(offset + ORDERKEY_OFFSET);
+		}
 
 		/**
-		 * Constructur that uses a |-separted string to initialize the Order object.
-		 * @param line A pipe (i.e., |) separated string containing a tuple of relation TPC-H table orders. 
-		 *        the String is tokenized and the object initialized with the individual attribute values
+		 * Returns the orderstatus of the order encoded in the buffer at the given offset, without decoding it.
 		 */
-		public Order(String line) {
-			StringTokenizer tokenizer = new StringTokenizer(line, "|");
-			int entry_id = 0;
-			while (tokenizer.hasMoreTokens()) {
-				String entry = tokenizer.nextToken();
-				switch (entry_id) {
+		static char readOrderStatus(ByteBuffer b, int offset) {
+			if ((b.get(offset + FLAGS_OFFSET) & STATUS_TEXT) == 0) {
+				return (char) b.get(offset + STATUS_OFFSET);
+			}
+			try {
+				return readText(b, offset, STATUS_TEXT).charAt(0);
+			} catch (UTFDataFormatException e) {
+				throw new IllegalStateException(e);
+			}
+		}
 
-				case 0:
-					this.o_orderkey = Integer.parseInt(entry);
-					break;
-				case 1:
-					this.o_custkey = Integer.parseInt(entry);
-					break;
-				case 2:
-					this.o_orderstatus = entry.charAt(0);
-					break;
-				case 3:
-					this.o_totalprice = Double.parseDouble(entry);
-					break;
-				case 4:
-					this.o_orderdate = entry;
-					break;
-				case 5:
-					this.o_orderpriority = entry;
-					break;
-				case 6:
-					this.o_clerk = entry;
-					break;
-				case 7:
-					this.o_shippingpriority = Integer.parseInt(entry);
-					break;
-				case 8:
-					this.o_comment = entry;
-					break;
-				default:
-					throw new RuntimeException("something is wrong here");
+		/**
+		 * Returns the totalprice of the order encoded in the buffer at the given offset, without decoding it.
+		 */
+		static double readTotalPrice(ByteBuffer b, int offset) {
+			return b.getDouble(offset + TOTALPRICE_OFFSET);
+		}
 
-				}
+		/**
+		 * Returns the orderdate (days since 1970-01-01) of the order encoded in the buffer at the given offset,
+		 * without decoding it, NO_VALUE if the orderdate is stored as text (see readOrderDate).
+		 */
+		static int readOrderDay(ByteBuffer b, int offset) {
+			return (b.get(offset + FLAGS_OFFSET) & DATE_TEXT) == 0 ? b.getInt(offset + ORDERDATE_OFFSET) : NO_VALUE;
+		}
 
-				entry_id++;
+		/**
+		 * Returns the orderdate of the order encoded in the buffer at the given offset as String.
+		 */
+		static String readOrderDate(ByteBuffer b, int offset) {
+			if ((b.get(offset + FLAGS_OFFSET) & DATE_TEXT) == 0) {
+				return formatDate(b.getInt(offset + ORDERDATE_OFFSET));
+			}
+			try {
+				return readText(b, offset, DATE_TEXT);
+			} catch (UTFDataFormatException e) {
+				throw new IllegalStateException(e);
 			}
 		}
 
 		/**
-		 * This constructor takes a byte array that contains the attribute values of an Order object and 
-		 * uses a DataInputStream to reconstruct the actual attribute value datatypes from the byte array.
-		 * @param o A byte array containing the information of an Order object
-		 * @throws IOException
+		 * Returns the number of bytes writeUTFBytes needs for the given String.
 		 */
-		public Order(byte[] o) throws IOException {
-			ByteArrayInputStream s = new ByteArrayInputStream(o);
-			DataInputStream ds = new DataInputStream(s);
-			this.o_orderkey = ds.readInt();
-			this.o_custkey = ds.readInt();
-			this.o_shippingpriority = ds.readInt();
-			this.o_orderdate = ds.readUTF();
-			this.o_orderpriority = ds.readUTF();
-			this.o_clerk = ds.readUTF();
-			this.o_comment = ds.readUTF();
-			this.o_orderstatus = ds.readChar();
-			this.o_totalprice = ds.readDouble();
+		private static int utfLength(String str) throws UTFDataFormatException {
+			int size = 0;
+			for (int i = 0; i < str.length(); i++) {
+				char c = str.charAt(i);
+				size += (c >= 0x0001 && c <= 0x007F) ? 1 : (c <= 0x07FF ? 2 : 3);
+			}
+			if (size > 0xFFFF) {
+				throw new UTFDataFormatException("encoded string too long: " + size + " bytes");
+			}
+			return size;
 		}
 
 		/**
-		 * This method uses a DataOutputStream to serialize the individual attribute values of this object into a byte array.
-		 * @return a byte array containing the attribute values of this Order object in byte form
-		 * @throws IOException
+		 * Writes the given String in modified UTF-8 (like DataOutputStream.writeUTF, but without the length) into the buffer.
+		 * @return the offset behind the written String
 		 */
-		public byte[] getAsByteArray() throws IOException {
-			ByteArrayOutputStream s = new ByteArrayOutputStream();
-			DataOutputStream ds = new DataOutputStream(s);
-			ds.writeInt(this.o_orderkey);
-			ds.writeInt(this.o_custkey);
-			ds.writeInt(this.o_shippingpriority);
-			ds.writeUTF(this.o_orderdate);
-			ds.writeUTF(this.o_orderpriority);
-			ds.writeUTF(this.o_clerk);
-			ds.writeUTF(this.o_comment);
-			ds.writeChar(this.o_orderstatus);
-			ds.writeDouble(this.o_totalprice);
-			return s.toByteArray();
+		private static int writeUTFBytes(ByteBuffer b, int offset, String str) {
+			int pos = offset;
+			for (int i = 0; i < str.length(); i++) {
+				char c = str.charAt(i);
+				if (c >= 0x0001 && c <= 0x007F) {
+					b.put(pos++, (byte) c);
+				} else if (c <= 0x07FF) {
+					b.put(pos++, (byte) (0xC0 | (c >> 6)));
+					b.put(pos++, (byte) (0x80 | (c & 0x3F)));
+				} else {
+					b.put(pos++, (byte) (0xE0 | (c >> 12)));
+					b.put(pos++, (byte) (0x80 | ((c >> 6) & 0x3F)));
+					b.put(pos++, (byte) (0x80 | (c & 0x3F)));
+				}
+			}
+			return pos;
 		}
  
 
@@ -750,3 +7334,60 @@ public class SlottedPageExercise {
 
 	
 }
+
+/**
+ * The operations on orders that every table layout offers, so code like the Benchmark can work on either:
+ * the row-wise slotted pages (SlottedPageExercise) and the PAX pages (SlottedPageExercise.PaxTable).
+ * It is a top-level type because SlottedPageExercise cannot implement an interface nested in itself.
+ *
+ */
+interface OrderTable {
+
+	/**
+	 * Stores the given order.
+	 * @param o The object to be stored
+	 * @return the TupleIdentifier pointing to the tuple
+	 * @throws Exception
+	 */
+	SlottedPageExercise.TupleIdentifier storeOrder(SlottedPageExercise.Order o) throws Exception;
+
+	/**
+	 * Returns the order stored under the given TupleIdentifier.
+	 * @param tid The tuple identifier
+	 * @return the order object, null if there is no tuple for the TupleIdentifier
+	 * @throws Exception
+	 */
+	SlottedPageExercise.Order getOrder(SlottedPageExercise.TupleIdentifier tid) throws Exception;
+
+	/**
+	 * Replaces the order stored under the given TupleIdentifier, which stays valid.
+	 * @param tid The tuple identifier
+	 * @param o The new order
+	 * @return true if the order was replaced, false if there is no tuple for the TupleIdentifier
+	 * @throws Exception
+	 */
+	boolean updateOrder(SlottedPageExercise.TupleIdentifier tid, SlottedPageExercise.Order o) throws Exception;
+
+	/**
+	 * Deletes the order stored under the given TupleIdentifier.
+	 * @param tid The tuple identifier
+	 * @return true if the order was deleted, false if there is no tuple for the TupleIdentifier
+	 * @throws Exception
+	 */
+	boolean deleteOrder(SlottedPageExercise.TupleIdentifier tid) throws Exception;
+
+	/**
+	 * Returns the orders that match the given predicate as a stream, in page order.
+	 * @param predicate the condition the orders have to fulfill, evaluated before they are decoded
+	 * @param parallel true for a parallel stream, which scans ranges of pages concurrently
+	 * @return the stream of orders
+	 */
+	Stream<SlottedPageExercise.Order> orders(SlottedPageExercise.OrderPredicate predicate, boolean parallel);
+
+	/**
+	 * Returns the fraction of the allocated bytes that holds data.
+	 * @throws Exception
+	 */
+	double getSpaceUtilization() throws Exception;
+
+}